@@ -46,6 +46,12 @@ function architectureAI(architecture)
 
 end
 
+function tagCampaign(obj, attackArchId, defendArchId, state)
+   addTag(obj, "attackArch", attackArchId)
+   addTag(obj, "defendArch", defendArchId)
+   addTag(obj, "state", state)
+end
+
 function defend(architecture)
    local hostileTroops = architecture.getHostileTroopsInView()
    local hostileValue = sum(hostileTroops, troopFunc.merit)
@@ -59,9 +65,12 @@ function defend(architecture)
          if position ~= nil then
             local _, m = max(architecture.getMilitaries(), troopFunc.militaryMerit)
             local troop = m.startCampaign(position.x, position.y)
-            addTag(troop, "attackArch", architecture.getId())
-            addTag(troop, "defendArch", architecture.getId())
-            addTag(troop, "state", TROOP_STATE_COMBAT)
+            if troop == nil then
+               -- campaign deferred by the command buffer, the troop takes the tags of its military when it leaves
+               tagCampaign(m, architecture.getId(), architecture.getId(), TROOP_STATE_COMBAT)
+               break
+            end
+            tagCampaign(troop, architecture.getId(), architecture.getId(), TROOP_STATE_COMBAT)
             local newValue = troopFunc.merit(troop)
             friendlyValue = friendlyValue + newValue
             print("Sending " .. troop.getName() .. " out, with its value " .. newValue)
@@ -87,9 +96,11 @@ function attack(architecture)
          if position ~= nil then
             local _, m = max(architecture.getMilitaries(), troopFunc.militaryMerit)
             local troop = m.startCampaign(position.x, position.y)
-            addTag(troop, "attackArch", targetId)
-            addTag(troop, "defendArch", architecture.getId())
-            addTag(troop, "state", TROOP_STATE_ADVANCE)
+            if troop == nil then
+               tagCampaign(m, targetId, architecture.getId(), TROOP_STATE_ADVANCE)
+               break
+            end
+            tagCampaign(troop, targetId, architecture.getId(), TROOP_STATE_ADVANCE)
             local newValue = troopFunc.merit(troop)
             powerSent = powerSent + troopFunc.merit(troop)
             print("Sending " .. troop.getName() .. " out, with its value " .. newValue)
@@ -113,6 +124,15 @@ function createMilitaries(architecture)
    local toRecruit, _ = max(kindScores)
    print("creating military of kind id " .. toRecruit)
    local createdMilitary = architecture.createMilitary(toRecruit)
+   if createdMilitary == nil then
+      -- creation deferred by the command buffer, lead one created on an earlier day instead
+      for _, m in pairs(militaries) do
+         if m.getLeader() == nil then
+            createdMilitary = m
+         end
+      end
+      if createdMilitary == nil then return end
+   end
 
    -- Assign main officer
    local toAssign, value
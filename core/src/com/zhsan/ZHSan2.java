@@ -16,6 +16,8 @@ import com.zhsan.screen.GameScreen;
 import com.zhsan.screen.ScreenScenarioEventsListener;
 import com.zhsan.screen.StartScreen;
 
+import java.util.function.IntConsumer;
+
 public class ZHSan2 extends ApplicationAdapter {
 
     public static final int DEFAULT_WIDTH = 794;
@@ -27,11 +29,28 @@ public class ZHSan2 extends ApplicationAdapter {
     private StartScreen startScreen;
     private GameScreen gameScreen;
 
+    private final IntConsumer backgroundFpsSetter;
+
+    public ZHSan2() {
+        this(fps -> {});
+    }
+
+    /**
+     * @param backgroundFpsSetter Sets the frame rate cap of the platform while the window is not focused
+     */
+    public ZHSan2(IntConsumer backgroundFpsSetter) {
+        this.backgroundFpsSetter = backgroundFpsSetter;
+    }
+
 	@Override
 	public void create () {
         Fonts.init();
         GlobalVariables.load();
 
+        // when not continuous, frames are drawn on input, and whenever something on screen moves
+        Gdx.graphics.setContinuousRendering(GlobalVariables.continuousRendering);
+        backgroundFpsSetter.accept(GlobalVariables.backgroundFps);
+
         Gdx.graphics.setTitle(GlobalStrings.getString(GlobalStrings.Keys.TITLE));
 
         startScreen = new StartScreen(new OnNewScenarioSelected());
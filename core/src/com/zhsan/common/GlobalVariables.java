@@ -10,6 +10,8 @@ import org.w3c.dom.Node;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by Peter on 22/3/2015.
@@ -21,7 +23,12 @@ public final class GlobalVariables {
     public static float scrollSpeed = 1.0f;
     public static boolean showGrid = true;
 
+    public static boolean continuousRendering = false;
+    public static int backgroundFps = 10;
+
     public static int maxRunningDays = 99;
+    public static int fastForwardUiDays = 10;
+    public static long fastForwardUiInterval = 250;
     public static Color blankColor = Color.WHITE;
 
     public static float diminishingGrowthMaxFactor = 1.5f;
@@ -59,11 +66,20 @@ public final class GlobalVariables {
     public static float reactDamageFactor = 0.5f;
 
     public static long aiTimeout = 20;
+    public static boolean compileAiScripts = false;
+    public static long aiInstructionBudget = 0;
+    public static long aiTimeBudget = 0;
+    public static boolean aiCommandBuffer = false;
+    public static String aiLogLevel = "debug";
+    public static Map<Integer, String> aiLogLevels = new HashMap<>();
+    public static int aiLogBufferSize = 4096;
+    public static long aiLogRotateSize = 10485760;
 
     public static float personMovingSpeed = 8.0f;
     public static float militaryMovingSpeed = 0.2f;
 
     public static int damageShowTime = 60;
+    public static int troopAnimationQueueSize = 1000;
 
     public static float troopCommandPersonFactor = 0.2f;
     public static float troopStrengthPersonFactor = 0.5f;
@@ -73,6 +89,8 @@ public final class GlobalVariables {
     public static int maxPathLengthAsConnected2 = 120;
     public static int leastDistanceFromArchitecturesAsConnected = 8;
 
+    public static int pathCacheSize = 1000;
+
     public static void load() {
         FileHandle f = Gdx.files.external(Paths.DATA + "GlobalVariables.xml");
 
@@ -86,7 +104,11 @@ public final class GlobalVariables {
             Node node = dom.getElementsByTagName("GlobalVariables").item(0);
             scrollSpeed = Float.parseFloat(XmlHelper.loadAttribute(node, "scrollSpeed"));
             showGrid = Boolean.parseBoolean(XmlHelper.loadAttribute(node, "showGrid"));
+            continuousRendering = Boolean.parseBoolean(XmlHelper.loadAttribute(node, "continuousRendering"));
+            backgroundFps = Integer.parseInt(XmlHelper.loadAttribute(node, "backgroundFps"));
             maxRunningDays = Integer.parseInt(XmlHelper.loadAttribute(node, "maxRunningDays"));
+            fastForwardUiDays = Integer.parseInt(XmlHelper.loadAttribute(node, "fastForwardUiDays"));
+            fastForwardUiInterval = Long.parseLong(XmlHelper.loadAttribute(node, "fastForwardUiInterval"));
             blankColor = XmlHelper.loadColorFromXml(Integer.parseUnsignedInt(
                     XmlHelper.loadAttribute(node, "blankColor")
             ));
@@ -102,6 +124,19 @@ public final class GlobalVariables {
             gainFoodPerPopulation = Float.parseFloat(XmlHelper.loadAttribute(node, "gainFoodPerPopulation"));
             internalCost = Integer.parseInt(XmlHelper.loadAttribute(node, "internalCost"));
             aiTimeout = Long.parseLong(XmlHelper.loadAttribute(node, "aiTimeout"));
+            compileAiScripts = Boolean.parseBoolean(XmlHelper.loadAttribute(node, "compileAiScripts"));
+            aiInstructionBudget = Long.parseLong(XmlHelper.loadAttribute(node, "aiInstructionBudget"));
+            aiTimeBudget = Long.parseLong(XmlHelper.loadAttribute(node, "aiTimeBudget"));
+            aiCommandBuffer = Boolean.parseBoolean(XmlHelper.loadAttribute(node, "aiCommandBuffer"));
+            aiLogLevel = XmlHelper.loadAttribute(node, "aiLogLevel");
+            aiLogLevels = new HashMap<>();
+            for (String s : XmlHelper.loadAttribute(node, "aiLogLevels").trim().split("\\s+")) {
+                if (s.isEmpty()) continue;
+                String[] pair = s.split(":");
+                aiLogLevels.put(Integer.parseInt(pair[0]), pair[1]);
+            }
+            aiLogBufferSize = Integer.parseInt(XmlHelper.loadAttribute(node, "aiLogBufferSize"));
+            aiLogRotateSize = Long.parseLong(XmlHelper.loadAttribute(node, "aiLogRotateSize"));
             recruitCostFactor = Float.parseFloat(XmlHelper.loadAttribute(node, "recruitCostFactor"));
             recruitEfficiency = Float.parseFloat(XmlHelper.loadAttribute(node, "recruitEfficiency"));
             recruitByLeaderEfficiency = Float.parseFloat(XmlHelper.loadAttribute(node, "recruitByLeaderEfficiency"));
@@ -120,12 +155,14 @@ public final class GlobalVariables {
             reactDamageFactor = Float.parseFloat(XmlHelper.loadAttribute(node, "reactDamageFactor"));
             personMovingSpeed = Float.parseFloat(XmlHelper.loadAttribute(node, "personMovingSpeed"));
             damageShowTime = Integer.parseInt(XmlHelper.loadAttribute(node, "damageShowTime"));
+            troopAnimationQueueSize = Integer.parseInt(XmlHelper.loadAttribute(node, "troopAnimationQueueSize"));
             troopCommandPersonFactor = Float.parseFloat(XmlHelper.loadAttribute(node, "troopCommandPersonFactor"));
             troopStrengthPersonFactor = Float.parseFloat(XmlHelper.loadAttribute(node, "troopStrengthPersonFactor"));
             troopIntelligencePersonFactor = Float.parseFloat(XmlHelper.loadAttribute(node, "troopIntelligencePersonFactor"));
             maxPathLengthAsConnected = Integer.parseInt(XmlHelper.loadAttribute(node, "maxPathLengthAsConnected"));
             maxPathLengthAsConnected2 = Integer.parseInt(XmlHelper.loadAttribute(node, "maxPathLengthAsConnected2"));
             leastDistanceFromArchitecturesAsConnected = Integer.parseInt(XmlHelper.loadAttribute(node, "leastDistanceFromArchitecturesAsConnected"));
+            pathCacheSize = Integer.parseInt(XmlHelper.loadAttribute(node, "pathCacheSize"));
             militaryMovingSpeed = Float.parseFloat(XmlHelper.loadAttribute(node, "militaryMovingSpeed"));
         } catch (Exception e) {
             throw new FileReadException(Paths.DATA + "GlobalVariables.xml", e);
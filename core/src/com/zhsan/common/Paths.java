@@ -10,4 +10,5 @@ public class Paths {
     public static final String FONTS = "Fonts" + File.separator;
     public static final String DATA = "GameData" + File.separator;
     public static final String LUA = "Lua" + File.separator;
+    public static final String CACHE = "Cache" + File.separator;
 }
@@ -2,12 +2,13 @@ package com.zhsan.gamecomponents.maplayer;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.zhsan.common.Paths;
 import com.zhsan.common.Point;
 import com.zhsan.gameobject.Architecture;
 import com.zhsan.gameobject.ArchitectureKind;
+import com.zhsan.gameobject.GameMap;
 import com.zhsan.gameobject.GameSurvey;
 import com.zhsan.screen.GameScreen;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -58,16 +59,18 @@ public class ArchitectureLayer implements MapLayer {
         }
     }
 
-    private Map<Pair<ArchitectureKind, ArchitectureImageQuantifier>, Texture> architectureImages = new HashMap<>();
-    private Map<String, Texture> architectureNameImages = new HashMap<>();
+    private SpriteAtlas atlas = new SpriteAtlas(ARCHITECTURE_RES_PATH, "Architecture");
+    private Map<Pair<ArchitectureKind, ArchitectureImageQuantifier>, TextureRegion> architectureImages = new HashMap<>();
+    private Map<String, TextureRegion> architectureNameImages = new HashMap<>();
 
     private float captionSize;
 
-    public ArchitectureLayer(float captionSize) {
+    public ArchitectureLayer(float captionSize, int spriteRegionSize) {
         this.captionSize = captionSize;
+        this.sprites = new StaticSpriteCache(spriteRegionSize);
     }
 
-    private Texture getArchitectureImage(String resSet, ArchitectureKind kind, ArchitectureImageQuantifier quantifier) {
+    private TextureRegion getArchitectureImage(String resSet, ArchitectureKind kind, ArchitectureImageQuantifier quantifier) {
         if (!architectureImages.containsKey(new ImmutablePair<>(kind, quantifier))) {
             String name = String.valueOf(kind.getId());
             String defaultName = name;
@@ -96,13 +99,12 @@ public class ArchitectureLayer implements MapLayer {
                     }
                 }
             }
-            Texture t = new Texture(f);
-            architectureImages.put(new ImmutablePair<>(kind, quantifier), t);
+            architectureImages.put(new ImmutablePair<>(kind, quantifier), atlas.get(f));
         }
         return architectureImages.get(new ImmutablePair<>(kind, quantifier));
     }
 
-    private Pair<ArchitectureImageQuantifier, Texture> getArchitectureImage(String resSet, ArchitectureKind kind, List<Point> shape) {
+    private Pair<ArchitectureImageQuantifier, TextureRegion> getArchitectureImage(String resSet, ArchitectureKind kind, List<Point> shape) {
         if (shape.size() == 1) {
             ArchitectureImageQuantifier q = new ArchitectureImageQuantifier(ArchitectureImageQuantifier.Quantifier.DEFAULT, 0);
             return new ImmutablePair<>(q, getArchitectureImage(resSet, kind, q));
@@ -174,74 +176,127 @@ public class ArchitectureLayer implements MapLayer {
         return new ImmutablePair<>(q, getArchitectureImage(resSet, kind, q));
     }
 
+    /**
+     * Everything needed to draw an architecture, relative to the pixel position of its center tile. Architecture shapes
+     * do not change in game, so the shape is only classified again when the resource pack changes.
+     */
+    private static final class ArchitectureDrawing {
+        private final Point mapCenter;
+        private final TextureRegion image, nameImage;
+        private final int mainSizeX, mainSizeY, mainSizeYNoOffset;
+        private final int nameImageWidth, nameImageHeight;
+
+        private ArchitectureDrawing(Point mapCenter, TextureRegion image, TextureRegion nameImage,
+                                    int mainSizeX, int mainSizeY, int mainSizeYNoOffset,
+                                    int nameImageWidth, int nameImageHeight) {
+            this.mapCenter = mapCenter;
+            this.image = image;
+            this.nameImage = nameImage;
+            this.mainSizeX = mainSizeX;
+            this.mainSizeY = mainSizeY;
+            this.mainSizeYNoOffset = mainSizeYNoOffset;
+            this.nameImageWidth = nameImageWidth;
+            this.nameImageHeight = nameImageHeight;
+        }
+    }
+
+    private Map<Architecture, Pair<ArchitectureImageQuantifier, TextureRegion>> architectureShapes = new HashMap<>();
+    private final StaticSpriteCache sprites;
+    private String spritesResPack;
+
+    private TextureRegion getNameImage(String resPack, String name) {
+        if (!architectureNameImages.containsKey(name)) {
+            FileHandle fh = Gdx.files.external(ARCHITECTURE_RES_PATH + resPack + File.separator + CAPTION_FOLDER_NAME + File.separator + name + ".png");
+            if (!fh.exists()) {
+                fh = Gdx.files.external(ARCHITECTURE_RES_PATH + GameSurvey.DEFAULT_RESOURCE_PACK + File.separator + CAPTION_FOLDER_NAME + File.separator + name + ".png");
+            }
+            architectureNameImages.put(name, atlas.get(fh));
+        }
+        return architectureNameImages.get(name);
+    }
+
+    private ArchitectureDrawing getArchitectureDrawing(String resPack, Architecture a, int zoom) {
+        Pair<ArchitectureImageQuantifier, TextureRegion> image = architectureShapes.get(a);
+        if (image == null) {
+            image = getArchitectureImage(resPack, a.getKind(), a.getLocations());
+            architectureShapes.put(a, image);
+        }
+
+        int mainSizeX, mainSizeY;
+        int mainSizeYNoOffset;
+        switch (image.getLeft().quantifier) {
+            case DEFAULT:
+                mainSizeX = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
+                mainSizeY = (int) (zoom * (1 + a.getKind().getDrawOffsetLength()));
+                mainSizeYNoOffset = zoom;
+                break;
+            case HORIZONTAL:
+                mainSizeX = (int) (zoom * (image.getLeft().size + a.getKind().getDrawOffsetLength()));
+                mainSizeY = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
+                mainSizeYNoOffset = zoom;
+                break;
+            case VERTICAL:
+                mainSizeX = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
+                mainSizeY = (int) (zoom * (image.getLeft().size + a.getKind().getDrawOffsetLength()));
+                mainSizeYNoOffset = zoom * image.getLeft().size;
+                break;
+            case DIAGONAL_SQUARE:
+                mainSizeX = (int) (zoom * (image.getLeft().size * 2 - 1 + a.getKind().getDrawOffsetWidth()));
+                mainSizeY = (int) (zoom * (image.getLeft().size * 2 - 1 + a.getKind().getDrawOffsetLength()));
+                mainSizeYNoOffset = zoom * (image.getLeft().size * 2 - 1);
+                break;
+            default:
+                mainSizeX = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
+                mainSizeY = (int) (zoom * (1 + a.getKind().getDrawOffsetLength()));
+                mainSizeYNoOffset = zoom;
+                break;
+        }
+
+        TextureRegion nameImage = getNameImage(resPack, a.getNameImageName());
+        int nameImageHeight = (int) (zoom * captionSize);
+        int nameImageWidth = (int) ((float) nameImage.getRegionWidth() * nameImageHeight / nameImage.getRegionHeight());
+
+        return new ArchitectureDrawing(Point.getCenter(a.getLocations()), image.getRight(), nameImage,
+                mainSizeX, mainSizeY, mainSizeYNoOffset, nameImageWidth, nameImageHeight);
+    }
+
+    private void buildSprites(GameScreen screen, String resPack, int zoom) {
+        GameMap map = screen.getScenario().getGameMap();
+        sprites.begin(map.getWidth(), map.getHeight(), zoom);
+        for (Architecture a : screen.getScenario().getArchitectures()) {
+            ArchitectureDrawing d = getArchitectureDrawing(resPack, a, zoom);
+
+            // architecture main
+            sprites.add(d.mapCenter.x, d.mapCenter.y, d.image,
+                    zoom / 2 - d.mainSizeX / 2, zoom / 2 - d.mainSizeY / 2, d.mainSizeX, d.mainSizeY);
+
+            // header
+            sprites.add(d.mapCenter.x, d.mapCenter.y, d.nameImage,
+                    zoom / 2 - d.nameImageWidth / 2, zoom / 2 + d.mainSizeYNoOffset / 2 - d.nameImageHeight / 2,
+                    d.nameImageWidth, d.nameImageHeight);
+        }
+        sprites.end();
+    }
+
     @Override
     public void draw(GameScreen screen, String resPack, DrawingHelpers helpers, int zoom,
                      Batch batch, float parentAlpha) {
-        for (Architecture a : screen.getScenario().getArchitectures()) {
-            Point mapCenter = Point.getCenter(a.getLocations());
-            if (helpers.isMapLocationOnScreen(mapCenter)) {
-                // draw architecture main
-                Pair<ArchitectureImageQuantifier, Texture> image =
-                        getArchitectureImage(resPack, a.getKind(), a.getLocations());
-
-                Point main = helpers.getPixelFromMapLocation(mapCenter);
-                int mainX = main.x + zoom / 2;
-                int mainY = main.y + zoom / 2;
-                int mainSizeX, mainSizeY;
-                int mainSizeYNoOffset;
-                switch (image.getLeft().quantifier) {
-                    case DEFAULT:
-                        mainSizeX = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
-                        mainSizeY = (int) (zoom * (1 + a.getKind().getDrawOffsetLength()));
-                        mainSizeYNoOffset = zoom;
-                        break;
-                    case HORIZONTAL:
-                        mainSizeX = (int) (zoom * (image.getLeft().size + a.getKind().getDrawOffsetLength()));
-                        mainSizeY = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
-                        mainSizeYNoOffset = zoom;
-                        break;
-                    case VERTICAL:
-                        mainSizeX = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
-                        mainSizeY = (int) (zoom * (image.getLeft().size + a.getKind().getDrawOffsetLength()));
-                        mainSizeYNoOffset = zoom * image.getLeft().size;
-                        break;
-                    case DIAGONAL_SQUARE:
-                        mainSizeX = (int) (zoom * (image.getLeft().size * 2 - 1 + a.getKind().getDrawOffsetWidth()));
-                        mainSizeY = (int) (zoom * (image.getLeft().size * 2 - 1 + a.getKind().getDrawOffsetLength()));
-                        mainSizeYNoOffset = zoom * (image.getLeft().size * 2 - 1);
-                        break;
-                    default:
-                        mainSizeX = (int) (zoom * (1 + a.getKind().getDrawOffsetWidth()));
-                        mainSizeY = (int) (zoom * (1 + a.getKind().getDrawOffsetLength()));
-                        mainSizeYNoOffset = zoom;
-                        break;
-                }
-                batch.draw(image.getRight(), mainX - mainSizeX / 2, mainY - mainSizeY / 2, mainSizeX, mainSizeY);
-
-                // draw header
-                String name = a.getNameImageName();
-                if (!architectureNameImages.containsKey(name)) {
-                    FileHandle fh = Gdx.files.external(ARCHITECTURE_RES_PATH + resPack + File.separator + CAPTION_FOLDER_NAME + File.separator + name + ".png");
-                    if (!fh.exists()) {
-                        fh = Gdx.files.external(ARCHITECTURE_RES_PATH + GameSurvey.DEFAULT_RESOURCE_PACK + File.separator + CAPTION_FOLDER_NAME + File.separator + name + ".png");
-                    }
-                    Texture nameImage = new Texture(fh);
-                    architectureNameImages.put(name, nameImage);
-                }
-                Texture nameImage = architectureNameImages.get(name);
-                int nameImageHeight = (int) (zoom * captionSize);
-                int nameImageWidth = (int) ((float) nameImage.getWidth() * nameImageHeight / nameImage.getHeight());
-                batch.draw(nameImage, mainX - nameImageWidth / 2, mainY + mainSizeYNoOffset / 2 - nameImageHeight / 2,
-                        nameImageWidth, nameImageHeight);
-            }
-
+        // architectures never move, so they are only laid out again when the zoom or the resource pack changes
+        if (!resPack.equals(spritesResPack)) {
+            architectureShapes.clear();
+            buildSprites(screen, resPack, zoom);
+            spritesResPack = resPack;
+        } else if (!sprites.isBuilt(zoom)) {
+            buildSprites(screen, resPack, zoom);
         }
+
+        sprites.draw(batch, helpers);
     }
 
     @Override
     public void dispose() {
-        architectureImages.values().forEach(Texture::dispose);
-        architectureNameImages.values().forEach(Texture::dispose);
+        sprites.dispose();
+        atlas.dispose();
     }
 
 }
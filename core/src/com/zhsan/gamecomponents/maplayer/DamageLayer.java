@@ -79,6 +79,7 @@ public class DamageLayer implements MapLayer {
 
     public void addDamagePack(List<DamagePack> pack) {
         pendingPacks.addAll(pack);
+        Gdx.graphics.requestRendering();
     }
 
     private final int[] d10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 100000000, 1000000000, 1000000000};
@@ -148,6 +149,10 @@ public class DamageLayer implements MapLayer {
             }
         }
         drawTime++;
+
+        if (!showingPacks.isEmpty()) {
+            Gdx.graphics.requestRendering();
+        }
     }
 
     @Override
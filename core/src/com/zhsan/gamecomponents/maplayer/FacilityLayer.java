@@ -2,12 +2,13 @@ package com.zhsan.gamecomponents.maplayer;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.zhsan.common.Paths;
 import com.zhsan.common.Point;
 import com.zhsan.gameobject.Facility;
 import com.zhsan.gameobject.FacilityKind;
+import com.zhsan.gameobject.GameMap;
 import com.zhsan.gameobject.GameSurvey;
 import com.zhsan.screen.GameScreen;
 
@@ -22,34 +23,57 @@ public class FacilityLayer implements MapLayer {
 
     public static final String FACILITY_RES_PATH = Paths.RESOURCES + "Facility" + File.separator;
 
-    private Map<FacilityKind, Texture> facilityKindImages = new HashMap<>();
+    private SpriteAtlas atlas = new SpriteAtlas(FACILITY_RES_PATH, "Facility");
+    private Map<FacilityKind, TextureRegion> facilityKindImages = new HashMap<>();
 
-    private Texture getFacilityImage(String resSet, FacilityKind kind) {
+    private final StaticSpriteCache sprites;
+    private String spritesResPack;
+    private int spritesFacilitiesVersion;
+
+    public FacilityLayer(int spriteRegionSize) {
+        this.sprites = new StaticSpriteCache(spriteRegionSize);
+    }
+
+    private TextureRegion getFacilityImage(String resSet, FacilityKind kind) {
         if (!facilityKindImages.containsKey(kind)) {
             FileHandle f = Gdx.files.external(FACILITY_RES_PATH + resSet + File.separator + kind.getId() + ".png");
             if (!f.exists()) {
                 f = Gdx.files.external(FACILITY_RES_PATH + GameSurvey.DEFAULT_RESOURCE_PACK + File.separator + kind.getId() + ".png");
             }
 
-            Texture t = new Texture(f);
-            facilityKindImages.put(kind, t);
+            facilityKindImages.put(kind, atlas.get(f));
         }
         return facilityKindImages.get(kind);
     }
 
+    private void buildSprites(GameScreen screen, String resPack, int zoom) {
+        GameMap map = screen.getScenario().getGameMap();
+        sprites.begin(map.getWidth(), map.getHeight(), zoom);
+        for (Facility f : screen.getScenario().getFacilities()) {
+            Point p = f.getLocation();
+            sprites.add(p.x, p.y, getFacilityImage(resPack, f.getKind()), 0, 0, zoom, zoom);
+        }
+        sprites.end();
+    }
+
     @Override
     public void draw(GameScreen screen, String resPack, DrawingHelpers helpers, int zoom, Batch batch, float parentAlpha) {
-        for (Facility f : screen.getScenario().getFacilities()) {
-            if (helpers.isMapLocationOnScreen(f.getLocation())) {
-                Texture facilityImage = getFacilityImage(resPack, f.getKind());
-                Point px = helpers.getPixelFromMapLocation(f.getLocation());
-                batch.draw(facilityImage, px.x, px.y, zoom, zoom);
-            }
+        int facilitiesVersion = screen.getScenario().getFacilitiesVersion();
+        if (!resPack.equals(spritesResPack)) {
+            facilityKindImages.clear();
         }
+        if (!resPack.equals(spritesResPack) || facilitiesVersion != spritesFacilitiesVersion || !sprites.isBuilt(zoom)) {
+            buildSprites(screen, resPack, zoom);
+            spritesResPack = resPack;
+            spritesFacilitiesVersion = facilitiesVersion;
+        }
+
+        sprites.draw(batch, helpers);
     }
 
     @Override
     public void dispose() {
-        facilityKindImages.values().forEach(Texture::dispose);
+        sprites.dispose();
+        atlas.dispose();
     }
 }
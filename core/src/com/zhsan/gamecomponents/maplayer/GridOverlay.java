@@ -0,0 +1,113 @@
+package com.zhsan.gamecomponents.maplayer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.math.MathUtils;
+import com.zhsan.gameobject.GameMap;
+import com.zhsan.gameobject.GameScenario;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Passability grid, pre-rendered into one transparent texture per map image so that it is drawn with a single call per
+ * image. The grid cell resolution follows the zoom level in power-of-two buckets, and all overlays are regenerated when
+ * the bucket changes. Only a few overlays are generated each frame, the rest of them show up in the following frames.
+ */
+final class GridOverlay {
+
+    private static final int GENERATIONS_PER_FRAME = 4;
+
+    private final GameScenario scenario;
+    private final Pixmap grid;
+    private final int maxResident;
+
+    private final LinkedHashMap<Integer, Texture> overlays = new LinkedHashMap<>(16, 0.75f, true);
+    private int cellSize;
+    private int generatedThisFrame;
+
+    GridOverlay(GameScenario scenario, FileHandle gridFile, int maxResident) {
+        this.scenario = scenario;
+        this.grid = new Pixmap(gridFile);
+        this.maxResident = maxResident;
+    }
+
+    /**
+     * Must be called once per frame before getting any overlay.
+     * @param zoom Current map zoom
+     */
+    void update(int zoom) {
+        generatedThisFrame = 0;
+
+        int bucket = Math.min(MathUtils.nextPowerOfTwo(zoom), Math.max(grid.getWidth(), grid.getHeight()));
+        if (bucket != cellSize) {
+            cellSize = bucket;
+            clear();
+        }
+
+        Iterator<Texture> it = overlays.values().iterator();
+        while (overlays.size() > maxResident && it.hasNext()) {
+            it.next().dispose();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return The grid overlay of the map image at the given image index, or null if it is not generated yet
+     */
+    Texture get(int x, int y) {
+        GameMap map = scenario.getGameMap();
+        int key = y * map.getImageCount() + x;
+
+        Texture t = overlays.get(key);
+        if (t == null && generatedThisFrame < GENERATIONS_PER_FRAME) {
+            t = generate(map, x, y);
+            overlays.put(key, t);
+            generatedThisFrame++;
+        } else if (t == null) {
+            // generate it in the following frames
+            Gdx.graphics.requestRendering();
+        }
+        return t;
+    }
+
+    private Texture generate(GameMap map, int x, int y) {
+        int n = map.getTileInEachImage();
+        Pixmap overlay = new Pixmap(n * cellSize, n * cellSize, Pixmap.Format.RGBA8888);
+        overlay.setColor(0, 0, 0, 0);
+        overlay.fill();
+
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                int mx = x * n + j;
+                int my = map.getHeight() - 1 - (y * n + i);
+
+                if (mx >= 0 && mx < map.getWidth() && my >= 0 && my < map.getHeight()) {
+                    if (map.getTerrainAt(mx, my).isPassableByAnyMilitaryKind(scenario)) {
+                        // pixmap rows go downwards
+                        overlay.drawPixmap(grid, 0, 0, grid.getWidth(), grid.getHeight(),
+                                j * cellSize, (n - 1 - i) * cellSize, cellSize, cellSize);
+                    }
+                }
+            }
+        }
+
+        Texture t = new Texture(overlay);
+        t.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+        overlay.dispose();
+        return t;
+    }
+
+    private void clear() {
+        overlays.values().forEach(Texture::dispose);
+        overlays.clear();
+    }
+
+    void dispose() {
+        clear();
+        grid.dispose();
+    }
+
+}
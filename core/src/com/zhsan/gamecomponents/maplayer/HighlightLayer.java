@@ -8,7 +8,7 @@ import com.zhsan.gameobject.GameScenario;
 import com.zhsan.gameobject.Troop;
 import com.zhsan.screen.GameScreen;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -19,7 +19,7 @@ public class HighlightLayer implements MapLayer {
     private GameScenario scenario;
 
     private Texture moveTo;
-    private List<Point> moveToHighlight = new ArrayList<>();
+    private List<Point> moveToHighlight = Collections.emptyList();
 
     public HighlightLayer(GameScenario scenario) {
         this.moveTo = new Texture(Gdx.files.external(MainMapLayer.DATA_PATH + "MoveTo.png"));
@@ -42,8 +42,8 @@ public class HighlightLayer implements MapLayer {
 
     @Override
     public void onStartSelectingLocation(Troop troop) {
-        moveToHighlight = scenario.getPathFinder(troop).getPointsWithinCost(
-                troop.getPosition(), troop.getKind().getMovability());
+        moveToHighlight = scenario.getPathFinder().getMovementRange(
+                troop, troop.getPosition(), troop.getKind().getMovability()).getPoints();
     }
 
     @Override
@@ -53,6 +53,6 @@ public class HighlightLayer implements MapLayer {
 
     @Override
     public void onEndSelectingLocation() {
-        moveToHighlight.clear();
+        moveToHighlight = Collections.emptyList();
     }
 }
@@ -3,6 +3,7 @@ package com.zhsan.gamecomponents.maplayer;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.math.MathUtils;
@@ -29,9 +30,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by Peter on 19/3/2015.
@@ -56,7 +55,9 @@ public class MainMapLayer extends WidgetGroup {
 
     public static final String DATA_PATH = MAP_ROOT_PATH + "Data" + File.separator;
 
-    private Map<String, Texture> mapTiles = new HashMap<>();
+    private MapTileStreamer mapTiles;
+    private int maxResidentTiles, tileUploadsPerFrame, tilePrefetch;
+    private Color tilePlaceholderColor;
 
     private int mapZoomMin, mapZoomMax, mapScrollBoundary, mapMouseScrollFactor;
     private float mapScrollFactor;
@@ -72,9 +73,10 @@ public class MainMapLayer extends WidgetGroup {
     private String mapInfoFormat;
     private Vector2 mousePosition = new Vector2();
 
-    private Texture grid;
+    private GridOverlay grid;
 
     private float captionSize;
+    private int staticSpriteRegionSize;
 
     private List<MapLayer> mapLayers = new ArrayList<>();
     private TroopAnimationLayer troopAnimationLayer;
@@ -108,8 +110,18 @@ public class MainMapLayer extends WidgetGroup {
             mapInfoMargin = Integer.parseInt(XmlHelper.loadAttribute(info, "BottomMargin"));
             mapInfoFormat = XmlHelper.loadAttribute(info, "TextFormat");
 
+            Node tiles = dom.getElementsByTagName("MapTiles").item(0);
+            maxResidentTiles = Integer.parseInt(XmlHelper.loadAttribute(tiles, "MaxResident"));
+            tileUploadsPerFrame = Integer.parseInt(XmlHelper.loadAttribute(tiles, "UploadsPerFrame"));
+            tilePrefetch = Integer.parseInt(XmlHelper.loadAttribute(tiles, "Prefetch"));
+            tilePlaceholderColor = XmlHelper.loadColorFromXml(Integer.parseUnsignedInt(
+                    XmlHelper.loadAttribute(tiles, "PlaceholderColor")));
+
             captionSize = Float.parseFloat(XmlHelper.loadAttribute(dom.getElementsByTagName("Caption").item(0), "Size"));
 
+            staticSpriteRegionSize = Integer.parseInt(XmlHelper.loadAttribute(
+                    dom.getElementsByTagName("StaticSprites").item(0), "RegionSize"));
+
         } catch (Exception e) {
             throw new FileReadException(MAP_ROOT_PATH + "MapLayerData.xml", e);
         }
@@ -125,9 +137,11 @@ public class MainMapLayer extends WidgetGroup {
         mapInfo.setY(mapInfoMargin);
         mapInfo.setWidth(Gdx.graphics.getWidth());
 
-        grid = new Texture(Gdx.files.external(DATA_PATH + "Grid.png"));
-
         GameMap map = screen.getScenario().getGameMap();
+        mapTiles = new MapTileStreamer(map.getFileName(), map.getImageCount(),
+                maxResidentTiles, tileUploadsPerFrame, tilePrefetch, tilePlaceholderColor);
+        grid = new GridOverlay(screen.getScenario(), Gdx.files.external(DATA_PATH + "Grid.png"), maxResidentTiles);
+
         Point mapCenter = screen.getScenario().getGameSurvey().getCameraPosition();
         this.mapCameraPosition = new Vector2(mapCenter.x * mapZoomMax, (map.getHeight() - 1 - mapCenter.y) * mapZoomMax);
 
@@ -138,8 +152,8 @@ public class MainMapLayer extends WidgetGroup {
         troopAnimationLayer = new TroopAnimationLayer();
         tileAnimationLayer = new TileAnimationLayer();
         damageLayer = new DamageLayer();
-        mapLayers.add(new ArchitectureLayer(captionSize));
-        mapLayers.add(new FacilityLayer());
+        mapLayers.add(new ArchitectureLayer(captionSize, staticSpriteRegionSize));
+        mapLayers.add(new FacilityLayer(staticSpriteRegionSize));
         mapLayers.add(tileAnimationLayer);
         mapLayers.add(troopAnimationLayer);
         mapLayers.add(damageLayer);
@@ -150,16 +164,6 @@ public class MainMapLayer extends WidgetGroup {
         mapInfo.setWidth(this.getWidth());
     }
 
-    private Texture getMapTile(String mapName, String fileName) {
-		// TODO async load tile images
-        if (mapTiles.containsKey(fileName)) {
-            return mapTiles.get(fileName);
-        }
-        Texture t = new Texture(Gdx.files.external(MAP_ROOT_PATH + mapName + File.separator + fileName + ".jpg"));
-        mapTiles.put(fileName, t);
-        return t;
-    }
-
     private void updateSurveyCameraPosition() {
         screen.getScenario().getGameSurvey().setCameraPosition(
                 new Point((int) (mapCameraPosition.x / mapZoomMax), (int) (screen.getScenario().getGameMap().getHeight() - mapCameraPosition.y / mapZoomMax))
@@ -231,6 +235,10 @@ public class MainMapLayer extends WidgetGroup {
         return troopAnimationLayer.isNoPendingTroopAnimations();
     }
 
+    public void awaitNoPendingTroopAnimations() throws InterruptedException {
+        troopAnimationLayer.awaitNoPendingTroopAnimations();
+    }
+
     @Override
     public void act(float delta) {
         super.act(delta);
@@ -255,6 +263,10 @@ public class MainMapLayer extends WidgetGroup {
             adjustZoom(-1);
         }
 
+        if (moveStateX != MoveStateX.IDLE || moveStateY != MoveStateY.IDLE || zoomState != ZoomState.IDLE) {
+            Gdx.graphics.requestRendering();
+        }
+
         mapCameraPosition.x = Math.max(getWidth() / 2, mapCameraPosition.x);
         mapCameraPosition.x = Math.min(map.getWidth() * mapZoomMax - getWidth() / 2, mapCameraPosition.x);
 
@@ -267,6 +279,36 @@ public class MainMapLayer extends WidgetGroup {
     private int mapDrawOffsetX, mapDrawOffsetY, imageLoX, imageLoY;
     private int xLo, xHi, yLo, yHi, zoom, offsetX, offsetY;
 
+    private final MapLayer.DrawingHelpers helpers = new MapLayer.DrawingHelpers() {
+        @Override
+        public boolean isMapLocationOnScreen(Point p) {
+            GameMap map = screen.getScenario().getGameMap();
+            return xLo * map.getTileInEachImage() <= p.x && p.x <= (xHi + 1) * map.getTileInEachImage() &&
+                    yLo * map.getTileInEachImage() <= (map.getHeight() - p.y + 1) &&
+                    (map.getHeight() - p.y + 1) <= (yHi + 1) * map.getTileInEachImage();
+        }
+
+        @Override
+        public boolean isMapAreaOnScreen(int areaXLo, int areaYLo, int areaXHi, int areaYHi) {
+            GameMap map = screen.getScenario().getGameMap();
+            return areaXLo <= (xHi + 1) * map.getTileInEachImage() && xLo * map.getTileInEachImage() <= areaXHi &&
+                    (map.getHeight() - areaYHi + 1) <= (yHi + 1) * map.getTileInEachImage() &&
+                    yLo * map.getTileInEachImage() <= (map.getHeight() - areaYLo + 1);
+        }
+
+        @Override
+        public int getPixelXFromMapLocation(int x) {
+            GameMap map = screen.getScenario().getGameMap();
+            return (x - xLo * map.getTileInEachImage()) * zoom - offsetX;
+        }
+
+        @Override
+        public int getPixelYFromMapLocation(int y) {
+            GameMap map = screen.getScenario().getGameMap();
+            return ((map.getHeight() - 1 - y) - yLo * map.getTileInEachImage()) * zoom - offsetY;
+        }
+    };
+
     public void draw(Batch batch, float parentAlpha) {
         // draw map tiles
         GameMap map = screen.getScenario().getGameMap();
@@ -296,6 +338,14 @@ public class MainMapLayer extends WidgetGroup {
         imageLoX = xLo;
         imageLoY = yLo;
 
+        mapTiles.update();
+        mapTiles.prefetch(xLo, xHi, yLo, yHi,
+                moveStateX == MoveStateX.LEFT ? -1 : moveStateX == MoveStateX.RIGHT ? 1 : 0,
+                moveStateY == MoveStateY.BOTTOM ? -1 : moveStateY == MoveStateY.TOP ? 1 : 0);
+        if (GlobalVariables.showGrid) {
+            grid.update(zoom);
+        }
+
         for (int y = yLo; y <= yHi; ++y) {
             for (int x = xLo; x <= xHi; ++x) {
                 if (x < 0 || x >= map.getImageCount()) continue;
@@ -305,22 +355,14 @@ public class MainMapLayer extends WidgetGroup {
                 int py = (y - yLo) * imageSize - offsetY;
 
                 // map
-                Texture texture = getMapTile(map.getFileName(), Integer.toString((map.getImageCount() - 1 - y) * map.getImageCount() + x));
+                Texture texture = mapTiles.get(x, y);
                 batch.draw(texture, px, py, imageSize, imageSize);
 
                 // grid
                 if (GlobalVariables.showGrid) {
-                    for (int i = 0; i < map.getTileInEachImage(); ++i) {
-                        for (int j = 0; j < map.getTileInEachImage(); ++j) {
-                            int mx = x * map.getTileInEachImage() + j;
-                            int my = map.getHeight() - 1 - (y * map.getTileInEachImage() + i);
-
-                            if (mx >= 0 && mx < map.getWidth() && my >= 0 && my < map.getHeight()) {
-                                if (map.getTerrainAt(mx, my).isPassableByAnyMilitaryKind(screen.getScenario())) {
-                                    batch.draw(grid, px + j * zoom, py + i * zoom, zoom, zoom);
-                                }
-                            }
-                        }
+                    Texture overlay = grid.get(x, y);
+                    if (overlay != null) {
+                        batch.draw(overlay, px, py, imageSize, imageSize);
                     }
                 }
             }
@@ -342,29 +384,17 @@ public class MainMapLayer extends WidgetGroup {
         }
 
         String resPack = screen.getScenario().getGameSurvey().getResourcePackName();
-        MapLayer.DrawingHelpers helpers = new MapLayer.DrawingHelpers() {
-            @Override
-            public boolean isMapLocationOnScreen(Point p) {
-                return xLo * map.getTileInEachImage() <= p.x && p.x <= (xHi + 1) * map.getTileInEachImage() &&
-                        yLo * map.getTileInEachImage() <= (map.getHeight() - p.y + 1) &&
-                        (map.getHeight() - p.y + 1) <= (yHi + 1) * map.getTileInEachImage();
-            }
-
-            @Override
-            public Point getPixelFromMapLocation(Point p) {
-                return new Point((p.x - xLo * map.getTileInEachImage()) * zoom - offsetX,
-                        ((map.getHeight() - 1 - p.y) - yLo * map.getTileInEachImage()) * zoom - offsetY);
-            }
-        };
-
-        mapLayers.forEach(l -> l.draw(screen, resPack, helpers, zoom, batch, parentAlpha));
+        for (int i = 0; i < mapLayers.size(); ++i) {
+            mapLayers.get(i).draw(screen, resPack, helpers, zoom, batch, parentAlpha);
+        }
 
         // draw childrens
         super.draw(batch, parentAlpha);
     }
 
     public void dispose() {
-        mapTiles.values().forEach(Texture::dispose);
+        mapTiles.dispose();
+        grid.dispose();
         mapLayers.forEach(com.zhsan.gamecomponents.maplayer.MapLayer::dispose);
     }
 
@@ -445,6 +475,9 @@ public class MainMapLayer extends WidgetGroup {
             if (keycode == Input.Keys.Q) {
                 GlobalVariables.showGrid = !GlobalVariables.showGrid;
             }
+            if (keycode == Input.Keys.F) {
+                screen.getDayRunner().setFastForward(!screen.getDayRunner().isFastForward());
+            }
             if (screen.allowRunDays()) {
                 if (keycode == Input.Keys.NUM_1) {
                     screen.getDayRunner().runDays(1);
@@ -14,7 +14,13 @@ public interface MapLayer {
 
     interface DrawingHelpers {
         boolean isMapLocationOnScreen(Point p);
-        Point getPixelFromMapLocation(Point p);
+        boolean isMapAreaOnScreen(int xLo, int yLo, int xHi, int yHi);
+        int getPixelXFromMapLocation(int x);
+        int getPixelYFromMapLocation(int y);
+
+        default Point getPixelFromMapLocation(Point p) {
+            return new Point(getPixelXFromMapLocation(p.x), getPixelYFromMapLocation(p.y));
+        }
     }
 
     public void draw(GameScreen screen, String resPack, DrawingHelpers helpers, int zoom,
@@ -0,0 +1,196 @@
+package com.zhsan.gamecomponents.maplayer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.zhsan.common.Pair;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Loads map tile images in the background.
+ *
+ * Tile images are decoded into {@link Pixmap}s by a background thread, visible tiles first and then the ones around the
+ * camera, more of them in the direction of scrolling. The decoded images are uploaded as textures on the render thread,
+ * a few per frame, and a placeholder is drawn in the meantime. At most {@code maxResident} textures are kept, the least
+ * recently drawn ones are disposed first.
+ */
+final class MapTileStreamer {
+
+    private final String mapPath;
+    private final int imageCount;
+    private final int maxResident;
+    private final int uploadsPerFrame;
+    private final int prefetch;
+
+    private final Texture placeholder;
+
+    private final LinkedHashMap<String, Texture> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private int minResident;
+
+    private final Set<String> requested = new HashSet<>();
+    private final Set<String> failed = new HashSet<>();
+    private final BlockingDeque<String> requests = new LinkedBlockingDeque<>();
+    private final Queue<Pair<String, Pixmap>> decoded = new ConcurrentLinkedQueue<>();
+
+    private final Thread loader;
+    private volatile boolean running = true;
+
+    MapTileStreamer(String mapName, int imageCount, int maxResident, int uploadsPerFrame, int prefetch, Color placeholderColor) {
+        this.mapPath = MainMapLayer.MAP_ROOT_PATH + mapName + File.separator;
+        this.imageCount = imageCount;
+        this.maxResident = maxResident;
+        this.uploadsPerFrame = uploadsPerFrame;
+        this.prefetch = prefetch;
+
+        Pixmap p = new Pixmap(1, 1, Pixmap.Format.RGBA8888);
+        p.setColor(placeholderColor);
+        p.fill();
+        placeholder = new Texture(p);
+        p.dispose();
+
+        loader = new Thread(this::load, "Map tile loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private String getFileName(int x, int y) {
+        return Integer.toString((imageCount - 1 - y) * imageCount + x);
+    }
+
+    private void load() {
+        while (running) {
+            String fileName;
+            try {
+                fileName = requests.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!running) return;
+
+            // null if the image cannot be loaded
+            Pixmap pixmap = null;
+            try {
+                pixmap = new Pixmap(Gdx.files.external(mapPath + fileName + ".jpg"));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            decoded.add(new Pair<>(fileName, pixmap));
+            Gdx.graphics.requestRendering();
+        }
+    }
+
+    private void request(String fileName, boolean urgent) {
+        if (resident.containsKey(fileName) || failed.contains(fileName)) return;
+        if (urgent) {
+            // move ahead of the prefetched tiles
+            if (requested.add(fileName) || requests.remove(fileName)) {
+                requests.addFirst(fileName);
+            }
+        } else if (requested.add(fileName)) {
+            requests.addLast(fileName);
+        }
+    }
+
+    /**
+     * Get the texture of the tile image at the given image index, requesting it if it is not loaded yet.
+     * @return The tile texture, or a placeholder if it is not ready
+     */
+    Texture get(int x, int y) {
+        String fileName = getFileName(x, y);
+        Texture t = resident.get(fileName);
+        if (t != null) {
+            return t;
+        }
+        request(fileName, true);
+        return placeholder;
+    }
+
+    /**
+     * Request the tiles around the visible range, extending further in the direction of scrolling. Call before getting
+     * the visible tiles of the frame, as requests for tiles no longer around the camera are dropped.
+     * @param dirX -1, 0 or 1 for scrolling left, not horizontally or right
+     * @param dirY -1, 0 or 1 for scrolling down, not vertically or up
+     */
+    void prefetch(int xLo, int xHi, int yLo, int yHi, int dirX, int dirY) {
+        int pxLo = xLo - 1 - (dirX < 0 ? prefetch : 0);
+        int pxHi = xHi + 1 + (dirX > 0 ? prefetch : 0);
+        int pyLo = yLo - 1 - (dirY < 0 ? prefetch : 0);
+        int pyHi = yHi + 1 + (dirY > 0 ? prefetch : 0);
+
+        // never evict what is on screen or about to be
+        minResident = 2 * (pxHi - pxLo + 1) * (pyHi - pyLo + 1);
+
+        // requests left over from previous camera positions are no longer useful
+        if (dirX != 0 || dirY != 0) {
+            requests.removeIf(requested::remove);
+        }
+
+        for (int y = pyLo; y <= pyHi; ++y) {
+            for (int x = pxLo; x <= pxHi; ++x) {
+                if (x < 0 || x >= imageCount || y < 0 || y >= imageCount) continue;
+                if (x >= xLo && x <= xHi && y >= yLo && y <= yHi) continue;
+                request(getFileName(x, y), false);
+            }
+        }
+    }
+
+    /**
+     * Upload decoded images and evict textures over the limit. Must be called on the render thread once per frame.
+     */
+    void update() {
+        for (int i = 0; i < uploadsPerFrame; ++i) {
+            Pair<String, Pixmap> p = decoded.poll();
+            if (p == null) break;
+
+            requested.remove(p.x);
+            if (p.y == null) {
+                failed.add(p.x);
+            } else {
+                Texture old = resident.put(p.x, new Texture(p.y));
+                if (old != null) {
+                    old.dispose();
+                }
+                p.y.dispose();
+            }
+        }
+
+        if (!decoded.isEmpty()) {
+            // upload the rest in the following frames
+            Gdx.graphics.requestRendering();
+        }
+
+        int limit = Math.max(maxResident, minResident);
+        Iterator<Texture> it = resident.values().iterator();
+        while (resident.size() > limit && it.hasNext()) {
+            it.next().dispose();
+            it.remove();
+        }
+    }
+
+    void dispose() {
+        running = false;
+        loader.interrupt();
+        try {
+            loader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        resident.values().forEach(Texture::dispose);
+        resident.clear();
+        decoded.forEach(p -> {
+            if (p.y != null) {
+                p.y.dispose();
+            }
+        });
+        decoded.clear();
+        placeholder.dispose();
+    }
+
+}
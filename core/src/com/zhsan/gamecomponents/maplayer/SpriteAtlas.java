@@ -0,0 +1,175 @@
+package com.zhsan.gamecomponents.maplayer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.PixmapIO;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.PixmapPacker;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.zhsan.common.Paths;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Sprites of one resource kind (architectures, facilities or troops) packed into a few large textures, so that the
+ * sprites of a map layer share textures and are drawn in a single batch.
+ *
+ * The images of a resource pack are packed when the pack is first used and cached under {@link Paths#CACHE}. The cache
+ * is rebuilt when any image of the pack is added, removed or modified. Images not in any resource pack, or too large to
+ * fit in a page, are loaded as separate textures.
+ */
+final class SpriteAtlas {
+
+    private static final int PAGE_SIZE = 2048;
+    private static final int PADDING = 2;
+
+    private static final String PAGE_PREFIX = "page";
+    private static final String INDEX_FILE = "index.txt";
+    private static final String SIGNATURE_FILE = "signature.txt";
+
+    private final String resPath;
+    private final String cachePath;
+
+    private final Map<String, Map<String, TextureRegion>> packs = new HashMap<>();
+    private final Map<String, TextureRegion> separateImages = new HashMap<>();
+    private final List<Texture> textures = new ArrayList<>();
+
+    /**
+     * @param resPath Root of the resources, containing one folder per resource pack
+     * @param kind Name of the resource kind, used for the cache folder
+     */
+    SpriteAtlas(String resPath, String kind) {
+        this.resPath = resPath.replace('\\', '/');
+        this.cachePath = Paths.CACHE + "Atlas" + File.separator + kind + File.separator;
+    }
+
+    /**
+     * Get the sprite of the given image file under the resource root.
+     */
+    TextureRegion get(FileHandle f) {
+        String path = f.path();
+        if (path.startsWith(resPath)) {
+            String relative = path.substring(resPath.length());
+            int packEnd = relative.indexOf('/');
+            if (packEnd > 0) {
+                String pack = relative.substring(0, packEnd);
+                Map<String, TextureRegion> regions = packs.get(pack);
+                if (regions == null) {
+                    regions = loadPack(pack);
+                    packs.put(pack, regions);
+                }
+                TextureRegion region = regions.get(relative.substring(packEnd + 1));
+                if (region != null) {
+                    return region;
+                }
+            }
+        }
+
+        TextureRegion region = separateImages.get(path);
+        if (region == null) {
+            Texture t = new Texture(f);
+            textures.add(t);
+            region = new TextureRegion(t);
+            separateImages.put(path, region);
+        }
+        return region;
+    }
+
+    private static void listImages(FileHandle dir, String prefix, List<String> result) {
+        for (FileHandle f : dir.list()) {
+            if (f.isDirectory()) {
+                listImages(f, prefix + f.name() + "/", result);
+            } else if (f.extension().equalsIgnoreCase("png")) {
+                result.add(prefix + f.name());
+            }
+        }
+    }
+
+    private Map<String, TextureRegion> loadPack(String pack) {
+        FileHandle source = Gdx.files.external(resPath + pack);
+        FileHandle cache = Gdx.files.external(cachePath + pack);
+
+        List<String> images = new ArrayList<>();
+        listImages(source, "", images);
+        Collections.sort(images);
+
+        StringBuilder signature = new StringBuilder();
+        for (String name : images) {
+            FileHandle f = source.child(name);
+            signature.append(name).append('\t').append(f.length()).append('\t').append(f.lastModified()).append('\n');
+        }
+
+        FileHandle signatureFile = cache.child(SIGNATURE_FILE);
+        if (!signatureFile.exists() || !signatureFile.readString("UTF-8").equals(signature.toString())) {
+            pack(source, images, cache);
+            signatureFile.writeString(signature.toString(), false, "UTF-8");
+        }
+
+        return loadIndex(cache);
+    }
+
+    private static void pack(FileHandle source, List<String> images, FileHandle cache) {
+        cache.deleteDirectory();
+        cache.mkdirs();
+
+        PixmapPacker packer = new PixmapPacker(PAGE_SIZE, PAGE_SIZE, Pixmap.Format.RGBA8888, PADDING, false);
+        try {
+            for (String name : images) {
+                Pixmap image = new Pixmap(source.child(name));
+                try {
+                    if (image.getWidth() + PADDING * 2 <= PAGE_SIZE && image.getHeight() + PADDING * 2 <= PAGE_SIZE) {
+                        packer.pack(name, image);
+                    }
+                } finally {
+                    image.dispose();
+                }
+            }
+
+            StringBuilder index = new StringBuilder();
+            for (int i = 0; i < packer.getPages().size; ++i) {
+                PixmapPacker.Page page = packer.getPages().get(i);
+                PixmapIO.writePNG(cache.child(PAGE_PREFIX + i + ".png"), page.getPixmap());
+                for (ObjectMap.Entry<String, Rectangle> e : page.getRects()) {
+                    index.append(e.key).append('\t').append(i).append('\t')
+                            .append((int) e.value.x).append('\t').append((int) e.value.y).append('\t')
+                            .append((int) e.value.width).append('\t').append((int) e.value.height).append('\n');
+                }
+            }
+            cache.child(INDEX_FILE).writeString(index.toString(), false, "UTF-8");
+        } finally {
+            packer.dispose();
+        }
+    }
+
+    private Map<String, TextureRegion> loadIndex(FileHandle cache) {
+        Map<String, TextureRegion> regions = new HashMap<>();
+        Map<Integer, Texture> pages = new HashMap<>();
+        for (String line : cache.child(INDEX_FILE).readString("UTF-8").split("\n")) {
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\t");
+
+            int page = Integer.parseInt(fields[1]);
+            Texture texture = pages.get(page);
+            if (texture == null) {
+                texture = new Texture(cache.child(PAGE_PREFIX + page + ".png"));
+                textures.add(texture);
+                pages.put(page, texture);
+            }
+            regions.put(fields[0], new TextureRegion(texture, Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5])));
+        }
+        return regions;
+    }
+
+    void dispose() {
+        textures.forEach(Texture::dispose);
+        textures.clear();
+        packs.clear();
+        separateImages.clear();
+    }
+
+}
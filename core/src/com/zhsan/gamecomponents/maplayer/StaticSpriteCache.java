@@ -0,0 +1,176 @@
+package com.zhsan.gamecomponents.maplayer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.SpriteCache;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Matrix4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sprites which do not move between days, uploaded to the GPU once and drawn with a few calls per frame instead of
+ * being submitted to the batch one by one.
+ *
+ * Sprites are positioned in map pixel space at a fixed zoom, so the cache stays valid while the camera scrolls, and are
+ * grouped into square regions of the map so that regions far off screen are skipped. The owner rebuilds the cache when
+ * the sprites or the zoom change.
+ */
+final class StaticSpriteCache {
+
+    private static final class Sprite {
+        private final TextureRegion region;
+        private final float x, y, width, height;
+
+        private Sprite(TextureRegion region, float x, float y, float width, float height) {
+            this.region = region;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final int regionSize;
+
+    private SpriteCache cache;
+    private int capacity;
+
+    private int mapWidth, mapHeight, zoom;
+    private int regionCountX, regionCountY;
+    private List<List<Sprite>> pending;
+    private int pendingCount;
+
+    // cache id of each region, -1 if the region has no sprites
+    private int[] regionCaches = new int[0];
+    private boolean built;
+
+    private final Matrix4 transform = new Matrix4();
+
+    /**
+     * @param regionSize Width and height of a cached map region, in tiles
+     */
+    StaticSpriteCache(int regionSize) {
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * @return Whether the cache has been built for the given zoom
+     */
+    boolean isBuilt(int zoom) {
+        return built && this.zoom == zoom;
+    }
+
+    /**
+     * Discard the cached sprites and start collecting new ones, positioned for the given map size and zoom.
+     */
+    void begin(int mapWidth, int mapHeight, int zoom) {
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+        this.zoom = zoom;
+
+        regionCountX = (mapWidth + regionSize - 1) / regionSize;
+        regionCountY = (mapHeight + regionSize - 1) / regionSize;
+        pending = new ArrayList<>(regionCountX * regionCountY);
+        for (int i = 0; i < regionCountX * regionCountY; ++i) {
+            pending.add(new ArrayList<>());
+        }
+        pendingCount = 0;
+        built = false;
+    }
+
+    /**
+     * Add a sprite belonging to the given map location. The position is relative to the pixel position of the location,
+     * in the same way as {@link MapLayer.DrawingHelpers#getPixelFromMapLocation(com.zhsan.common.Point)}.
+     */
+    void add(int mapX, int mapY, TextureRegion region, float x, float y, float width, float height) {
+        int rx = Math.max(0, Math.min(regionCountX - 1, mapX / regionSize));
+        int ry = Math.max(0, Math.min(regionCountY - 1, mapY / regionSize));
+        pending.get(ry * regionCountX + rx).add(new Sprite(region,
+                mapX * zoom + x, (mapHeight - 1 - mapY) * zoom + y, width, height));
+        pendingCount++;
+    }
+
+    /**
+     * Upload the collected sprites.
+     */
+    void end() {
+        if (cache == null || pendingCount > capacity) {
+            if (cache != null) {
+                cache.dispose();
+            }
+            capacity = Math.max(pendingCount, capacity * 2);
+            cache = new SpriteCache(Math.max(1, capacity), false);
+        } else {
+            cache.clear();
+        }
+
+        regionCaches = new int[pending.size()];
+        for (int i = 0; i < pending.size(); ++i) {
+            List<Sprite> sprites = pending.get(i);
+            if (sprites.isEmpty()) {
+                regionCaches[i] = -1;
+                continue;
+            }
+            cache.beginCache();
+            for (Sprite s : sprites) {
+                cache.add(s.region, s.x, s.y, s.width, s.height);
+            }
+            regionCaches[i] = cache.endCache();
+        }
+
+        pending = null;
+        built = true;
+    }
+
+    /**
+     * Draw the regions on screen. The batch is flushed and restarted.
+     */
+    void draw(Batch batch, MapLayer.DrawingHelpers helpers) {
+        if (!built) return;
+
+        boolean drawing = false;
+        for (int ry = 0; ry < regionCountY; ++ry) {
+            for (int rx = 0; rx < regionCountX; ++rx) {
+                int id = regionCaches[ry * regionCountX + rx];
+                if (id < 0) continue;
+                if (!helpers.isMapAreaOnScreen(rx * regionSize, ry * regionSize,
+                        Math.min(mapWidth, (rx + 1) * regionSize) - 1, Math.min(mapHeight, (ry + 1) * regionSize) - 1)) {
+                    continue;
+                }
+
+                if (!drawing) {
+                    batch.end();
+
+                    // map pixel space to screen, map location (0, height - 1) being at the origin of the map pixel space
+                    transform.set(batch.getTransformMatrix()).translate(
+                            helpers.getPixelXFromMapLocation(0), helpers.getPixelYFromMapLocation(mapHeight - 1), 0);
+                    cache.setProjectionMatrix(batch.getProjectionMatrix());
+                    cache.setTransformMatrix(transform);
+
+                    Gdx.gl.glEnable(GL20.GL_BLEND);
+                    Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+                    cache.begin();
+                    drawing = true;
+                }
+                cache.draw(id);
+            }
+        }
+
+        if (drawing) {
+            cache.end();
+            batch.begin();
+        }
+    }
+
+    void dispose() {
+        if (cache != null) {
+            cache.dispose();
+            cache = null;
+        }
+        built = false;
+    }
+
+}
@@ -33,7 +33,9 @@ public class TileAnimationLayer implements MapLayer {
     private Map<Integer, Texture> tileImages = new HashMap<>();
 
     public void showTileAnimation(Point location, TroopAnimation animation) {
-        runningAnimations.add(new OneShotAnimator(location, animation));
+        // purely visual, dropped if too many are already running
+        runningAnimations.offer(new OneShotAnimator(location, animation));
+        Gdx.graphics.requestRendering();
     }
 
     private TextureRegion getTileImage(TroopAnimation animation, int frame) {
@@ -65,6 +67,10 @@ public class TileAnimationLayer implements MapLayer {
                 runningAnimations.remove(tileAnimator);
             }
         });
+
+        if (!runningAnimations.isEmpty()) {
+            Gdx.graphics.requestRendering();
+        }
     }
 
     @Override
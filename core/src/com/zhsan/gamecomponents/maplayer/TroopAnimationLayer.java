@@ -2,10 +2,10 @@ package com.zhsan.gamecomponents.maplayer;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
-import com.zhsan.common.Pair;
+import com.badlogic.gdx.utils.IntArray;
+import com.zhsan.common.GlobalVariables;
 import com.zhsan.common.Paths;
 import com.zhsan.common.Point;
 import com.zhsan.gamecomponents.maplayer.troopanimator.Animator;
@@ -18,6 +18,8 @@ import java.io.File;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Peter on 8/8/2015.
@@ -57,62 +59,157 @@ public class TroopAnimationLayer implements MapLayer {
 
     public static final String TROOP_RES_PATH = Paths.RESOURCES + "Troop" + File.separator;
 
-    private Map<Pair<MilitaryKind, TroopAnimation>, Texture> troopImages = new HashMap<>();
+    private SpriteAtlas atlas = new SpriteAtlas(TROOP_RES_PATH, "Troop");
+    // frames of each military kind and animation, indexed by frame and direction
+    private Map<MilitaryKind, Map<TroopAnimation, TextureRegion[][]>> troopImages = new HashMap<>();
+    private Map<TroopAnimation.TroopAnimationKind, TroopAnimation> troopAnimations = new EnumMap<>(TroopAnimation.TroopAnimationKind.class);
 
     private int idleFrame = 0;
 
-    private BlockingQueue<PendingTroopAnimation> pendingTroopAnimations = new ArrayBlockingQueue<>(1000);
+    private static final long QUEUE_FULL_WAIT = 100;
+
+    // bounded, the day runner waits when the render thread falls behind
+    private BlockingQueue<PendingTroopAnimation> pendingTroopAnimations =
+            new ArrayBlockingQueue<>(GlobalVariables.troopAnimationQueueSize);
+    // animations added and not yet done, whether queued, waiting for their troop or running
+    private AtomicInteger pendingTroopAnimationCount = new AtomicInteger();
+    private final Object troopAnimationsDoneLock = new Object();
+
+    // below are only accessed in the render thread and reused across frames
+    private List<PendingTroopAnimation> waitingAnimations = new ArrayList<>();
 
     private List<Animator> runningAnimators = new ArrayList<>();
     private Set<Troop> runningTroops = new HashSet<>();
+    private List<Troop> completedTroops = new ArrayList<>();
 
     private Map<Troop, TroopTitleWidget> troopTitleWidgets = new HashMap<>();
-    private Map<Troop, Double> troopDirections = new HashMap<>();
+    private Map<Troop, Integer> troopDirections = new HashMap<>();
+
+    private List<Troop> troops = new ArrayList<>();
+    private int troopsVersion = -1;
 
+    private List<Troop> drawnTroops = new ArrayList<>();
+    private IntArray drawnTroopX = new IntArray(), drawnTroopY = new IntArray();
+
+    /**
+     * Queue an animation to be played, blocking while the queue is full.
+     */
     public void addPendingTroopAnimation(TroopAnimationLayer.PendingTroopAnimation animation) {
-        pendingTroopAnimations.add(animation);
+        pendingTroopAnimationCount.incrementAndGet();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pendingTroopAnimations.offer(animation, QUEUE_FULL_WAIT, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            // the queue is drained by drawing
+            Gdx.graphics.requestRendering();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Gdx.graphics.requestRendering();
     }
 
     public boolean isNoPendingTroopAnimations() {
-        return pendingTroopAnimations.size() == 0;
+        return pendingTroopAnimationCount.get() <= 0;
     }
 
-    private TextureRegion getTroopImage(String resSet, Troop t, TroopAnimation.TroopAnimationKind animationKind, int frame, double dir, GameScenario scen) {
+    /**
+     * Block until every animation added so far is done and its callback has returned.
+     */
+    public void awaitNoPendingTroopAnimations() throws InterruptedException {
+        synchronized (troopAnimationsDoneLock) {
+            while (!isNoPendingTroopAnimations()) {
+                troopAnimationsDoneLock.wait();
+            }
+        }
+    }
+
+    private void troopAnimationDone(PendingTroopAnimation animation, boolean runCallback) {
+        try {
+            if (runCallback) {
+                animation.onTroopAnimationDone.onTroopAnimationDone();
+            }
+        } finally {
+            if (pendingTroopAnimationCount.decrementAndGet() <= 0) {
+                synchronized (troopAnimationsDoneLock) {
+                    troopAnimationsDoneLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static int getDirectionIndex(double dir) {
+        return ((int) ((dir + 22.5) / 45) + 1) % 8;
+    }
+
+    private TroopAnimation getTroopAnimation(TroopAnimation.TroopAnimationKind animationKind, GameScenario scen) {
+        TroopAnimation animation = troopAnimations.get(animationKind);
+        if (animation == null) {
+            animation = scen.getTroopAnimations().get(animationKind.getId());
+            troopAnimations.put(animationKind, animation);
+        }
+        return animation;
+    }
+
+    private TextureRegion getTroopImage(String resSet, Troop t, TroopAnimation.TroopAnimationKind animationKind, int frame, int direction, GameScenario scen) {
         MilitaryKind kind = t.getKind();
-        TroopAnimation animation = scen.getTroopAnimations().get(animationKind.getId());
+        TroopAnimation animation = getTroopAnimation(animationKind, scen);
 
-        Pair<MilitaryKind, TroopAnimation> pair = new Pair<>(kind, animation);
+        Map<TroopAnimation, TextureRegion[][]> kindImages = troopImages.get(kind);
+        if (kindImages == null) {
+            kindImages = new HashMap<>();
+            troopImages.put(kind, kindImages);
+        }
 
-        if (!troopImages.containsKey(pair)) {
+        TextureRegion[][] frames = kindImages.get(animation);
+        if (frames == null) {
             FileHandle f = Gdx.files.external(TROOP_RES_PATH + resSet + File.separator + kind.getId() + File.separator + animation.getFileName());
-            Texture texture = new Texture(f);
-            troopImages.put(pair, texture);
+            TextureRegion sheet = atlas.get(f);
+
+            int spriteSize = animation.getSpriteSize();
+            frames = new TextureRegion[animation.getFrameCount()][8];
+            for (int i = 0; i < frames.length; ++i) {
+                for (int j = 0; j < 8; ++j) {
+                    frames[i][j] = new TextureRegion(sheet, i * spriteSize, j * spriteSize, spriteSize, spriteSize);
+                }
+            }
+            kindImages.put(animation, frames);
         }
 
         int frameIndex = frame / animation.getIdleFrame() % animation.getFrameCount();
-        int frameDirection = ((int) ((dir + 22.5) / 45) + 1) % 8;
-        int spriteSize = animation.getSpriteSize();
-        return new TextureRegion(troopImages.get(pair),
-                frameIndex * spriteSize, frameDirection * spriteSize, spriteSize, spriteSize);
+        return frames[frameIndex][direction];
     }
 
-    @Override
-    public void draw(GameScreen screen, String resPack, DrawingHelpers helpers,
-                     int zoom, Batch batch, float parentAlpha) {
-        new ArrayList<>(pendingTroopAnimations).forEach(animation -> {
-            if (runningTroops.contains(animation.troop)) return;
-            if (animation.troop.isDestroyed()) {
-                pendingTroopAnimations.remove(animation);
-                return;
+    private void startPendingAnimations(GameScreen screen, DrawingHelpers helpers) {
+        // take no more than the queue size, so that the queue stays full and holds back the day runner
+        pendingTroopAnimations.drainTo(waitingAnimations,
+                GlobalVariables.troopAnimationQueueSize - waitingAnimations.size());
+
+        int waiting = 0;
+        for (int i = 0; i < waitingAnimations.size(); ++i) {
+            PendingTroopAnimation animation = waitingAnimations.get(i);
+            if (runningTroops.contains(animation.troop)) {
+                waitingAnimations.set(waiting++, animation);
+                continue;
             }
 
-            pendingTroopAnimations.remove(animation);
+            if (animation.troop.isDestroyed()) {
+                // damage dealt by a troop routed in the same combat phase is still shown
+                troopAnimationDone(animation, animation.type == PendingTroopAnimationType.ATTACK);
+                continue;
+            }
 
             Animator animator;
             if (animation.type == PendingTroopAnimationType.MOVE) {
                 animator = new MoveAnimator(helpers, animation);
             } else if (animation.type == PendingTroopAnimationType.ATTACK) {
-                TroopAnimation ta = screen.getScenario().getTroopAnimations().get(TroopAnimation.TroopAnimationKind.ATTACK.getId());
+                TroopAnimation ta = getTroopAnimation(TroopAnimation.TroopAnimationKind.ATTACK, screen.getScenario());
                 int frameCount = ta.getFrameCount() * ta.getIdleFrame();
                 animator = new AttackAnimator(helpers, animation, frameCount);
             } else {
@@ -123,85 +220,135 @@ public class TroopAnimationLayer implements MapLayer {
                 runningTroops.add(animation.troop);
                 runningAnimators.add(animator);
             } else {
-                animator.getAnimation().onTroopAnimationDone.onTroopAnimationDone();
+                troopAnimationDone(animation, true);
             }
-        });
+        }
+        truncate(waitingAnimations, waiting);
+    }
 
-        Map<Troop, Point> drawnTroops = new HashMap<>();
+    private static void truncate(List<?> list, int size) {
+        while (list.size() > size) {
+            list.remove(list.size() - 1);
+        }
+    }
 
-        Set<Troop> toDraw = new HashSet<>(screen.getScenario().getTroops().getAll());
-        Iterator<Animator> animatorIterator = runningAnimators.iterator();
-        while (animatorIterator.hasNext()) {
-            Animator animator = animatorIterator.next();
+    private void addDrawnTroop(Troop t, int x, int y) {
+        drawnTroops.add(t);
+        drawnTroopX.add(x);
+        drawnTroopY.add(y);
+    }
 
-            Troop t = animator.getAnimation().troop;
-            toDraw.remove(t);
+    @Override
+    public void draw(GameScreen screen, String resPack, DrawingHelpers helpers,
+                     int zoom, Batch batch, float parentAlpha) {
+        GameScenario scen = screen.getScenario();
 
+        startPendingAnimations(screen, helpers);
+
+        drawnTroops.clear();
+        drawnTroopX.clear();
+        drawnTroopY.clear();
+
+        int running = 0;
+        for (int i = 0; i < runningAnimators.size(); ++i) {
+            Animator animator = runningAnimators.get(i);
+
+            Troop t = animator.getAnimation().troop;
             if (t.isDestroyed()) {
                 troopDirections.remove(t);
-                animatorIterator.remove(); 
+                runningTroops.remove(t);
+                troopAnimationDone(animator.getAnimation(), animator instanceof AttackAnimator);
                 continue;
             }
 
-            Point px = animator.step();
-            double direction = Point.getDirection(animator.getAnimation().from, animator.getAnimation().to);
+            animator.step();
+            int direction = getDirectionIndex(Point.getDirection(animator.getAnimation().from, animator.getAnimation().to));
             troopDirections.put(t, direction);
             if (animator instanceof MoveAnimator) {
-                TextureRegion image = getTroopImage(resPack, t, TroopAnimation.TroopAnimationKind.IDLE, idleFrame, direction, screen.getScenario());
-                batch.draw(image, px.x, px.y, zoom, zoom);
+                TextureRegion image = getTroopImage(resPack, t, TroopAnimation.TroopAnimationKind.IDLE, idleFrame, direction, scen);
+                batch.draw(image, animator.getDrawX(), animator.getDrawY(), zoom, zoom);
             } else if (animator instanceof AttackAnimator) {
-                TextureRegion image = getTroopImage(resPack, t, TroopAnimation.TroopAnimationKind.ATTACK, animator.getCurrentFrame(), direction, screen.getScenario());
-                batch.draw(image, px.x, px.y, zoom, zoom);
+                TextureRegion image = getTroopImage(resPack, t, TroopAnimation.TroopAnimationKind.ATTACK, animator.getCurrentFrame(), direction, scen);
+                batch.draw(image, animator.getDrawX(), animator.getDrawY(), zoom, zoom);
             }
 
-            drawnTroops.put(t, px);
+            addDrawnTroop(t, animator.getDrawX(), animator.getDrawY());
 
             if (animator.isCompleted()) {
-                animator.getAnimation().onTroopAnimationDone.onTroopAnimationDone();
-                animatorIterator.remove();
-                runningTroops.remove(t);
+                troopAnimationDone(animator.getAnimation(), true);
+                completedTroops.add(t);
+            } else {
+                runningAnimators.set(running++, animator);
             }
         }
-
-        for (Troop t : toDraw) {
+        truncate(runningAnimators, running);
+
+        if (troopsVersion != scen.getTroopsVersion()) {
+            troopsVersion = scen.getTroopsVersion();
+            troops.clear();
+            troops.addAll(scen.getTroops().getAll());
+
+            // forget troops which are gone
+            GameObjectList<Troop> current = scen.getTroops();
+            Iterator<Map.Entry<Troop, TroopTitleWidget>> it = troopTitleWidgets.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Troop, TroopTitleWidget> e = it.next();
+                if (current.get(e.getKey().getId()) != e.getKey()) {
+                    e.getValue().dispose();
+                    it.remove();
+                }
+            }
+            troopDirections.keySet().removeIf(t -> current.get(t.getId()) != t);
+        }
+        for (int i = 0; i < troops.size(); ++i) {
+            Troop t = troops.get(i);
+            if (runningTroops.contains(t)) continue;
             if (t.isDestroyed()) {
                 troopDirections.remove(t);
+                continue;
             }
-            if (helpers.isMapLocationOnScreen(t.getPosition())) {
-                double direction;
-                if (troopDirections.containsKey(t)) {
-                    direction = troopDirections.get(t);
-                } else {
-                    direction = 0;
-                }
 
-                TextureRegion image = getTroopImage(resPack, t, TroopAnimation.TroopAnimationKind.IDLE, idleFrame, direction, screen.getScenario());
-                Point px = helpers.getPixelFromMapLocation(t.getPosition());
-                batch.draw(image, px.x, px.y, zoom, zoom);
+            Point p = t.getPosition();
+            if (helpers.isMapLocationOnScreen(p)) {
+                Integer direction = troopDirections.get(t);
+
+                TextureRegion image = getTroopImage(resPack, t, TroopAnimation.TroopAnimationKind.IDLE, idleFrame,
+                        direction == null ? getDirectionIndex(0) : direction, scen);
+                int x = helpers.getPixelXFromMapLocation(p.x);
+                int y = helpers.getPixelYFromMapLocation(p.y);
+                batch.draw(image, x, y, zoom, zoom);
 
-                drawnTroops.put(t, px);
+                addDrawnTroop(t, x, y);
             }
         }
 
-        drawnTroops.entrySet().forEach(t -> {
-            if (t.getKey().isDestroyed()) {
-                troopTitleWidgets.remove(t.getKey());
-            }
-            TroopTitleWidget widget = troopTitleWidgets.get(t.getKey());
+        // troops done animating this frame are drawn once only
+        for (int i = 0; i < completedTroops.size(); ++i) {
+            runningTroops.remove(completedTroops.get(i));
+        }
+        completedTroops.clear();
+
+        for (int i = 0; i < drawnTroops.size(); ++i) {
+            Troop t = drawnTroops.get(i);
+            TroopTitleWidget widget = troopTitleWidgets.get(t);
             if (widget == null) {
-                widget = new TroopTitleWidget(t.getKey());
-                troopTitleWidgets.put(t.getKey(), widget);
+                widget = new TroopTitleWidget(t);
+                troopTitleWidgets.put(t, widget);
             }
-            widget.setPosition(t.getValue().x, t.getValue().y + zoom);
+            widget.setPosition(drawnTroopX.get(i), drawnTroopY.get(i) + zoom);
             widget.draw(batch, parentAlpha);
-        });
+        }
 
         idleFrame++;
+
+        if (!runningAnimators.isEmpty() || !isNoPendingTroopAnimations()) {
+            Gdx.graphics.requestRendering();
+        }
     }
 
     @Override
     public void dispose() {
-        troopImages.values().forEach(Texture::dispose);
+        atlas.dispose();
         troopTitleWidgets.values().forEach(TroopTitleWidget::dispose);
         TroopTitleWidget.disposeAll();
     }
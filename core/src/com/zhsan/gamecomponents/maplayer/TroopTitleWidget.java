@@ -138,6 +138,7 @@ public class TroopTitleWidget extends WidgetGroup {
     private static Setting setting;
 
     private TextWidget<Void> nameText, troopText;
+    private int shownQuantity = -1;
 
     public TroopTitleWidget(Troop t) {
         if (setting == null) {
@@ -159,13 +160,13 @@ public class TroopTitleWidget extends WidgetGroup {
             return;
         }
 
-        Color factionColor = new Color(troop.getBelongedFaction() == null ? Color.WHITE : troop.getBelongedFaction().getColor());
+        Color factionColor = troop.getBelongedFaction() == null ? Color.WHITE : troop.getBelongedFaction().getColor();
         batch.draw(setting.background, setting.backgroundPos.x + getX(), setting.backgroundPos.y + getY(),
                 setting.backgroundPos.width, setting.backgroundPos.height);
         batch.setColor(factionColor);
         batch.draw(setting.faction, setting.factionPos.x + getX(), setting.factionPos.y + getY(),
                 setting.factionPos.width, setting.factionPos.height);
-        batch.setColor(new Color(Color.WHITE));
+        batch.setColor(Color.WHITE);
 
         nameText.setPosition(setting.namePos.x, setting.namePos.y);
         nameText.setSize(setting.namePos.width, setting.namePos.height);
@@ -173,7 +174,10 @@ public class TroopTitleWidget extends WidgetGroup {
 
         troopText.setPosition(setting.troopPos.x, setting.troopPos.y);
         troopText.setSize(setting.troopPos.width, setting.troopPos.height);
-        troopText.setText(String.valueOf(troop.getQuantity()));
+        if (troop.getQuantity() != shownQuantity) {
+            shownQuantity = troop.getQuantity();
+            troopText.setText(String.valueOf(shownQuantity));
+        }
 
         super.draw(batch, parentAlpha);
     }
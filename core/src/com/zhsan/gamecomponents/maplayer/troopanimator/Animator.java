@@ -1,6 +1,5 @@
 package com.zhsan.gamecomponents.maplayer.troopanimator;
 
-import com.zhsan.common.Point;
 import com.zhsan.gamecomponents.maplayer.TroopAnimationLayer;
 
 /**
@@ -14,7 +13,17 @@ public interface Animator {
 
     public boolean isCompleted();
 
-    public Point step();
+    /**
+     * Advance the animation by one frame
+     */
+    public void step();
+
+    /**
+     * @return Pixel position of the troop at the current frame
+     */
+    public int getDrawX();
+
+    public int getDrawY();
 
     public default int getCurrentFrame() {
         return 0;
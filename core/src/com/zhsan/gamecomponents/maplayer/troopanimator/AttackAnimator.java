@@ -1,6 +1,5 @@
 package com.zhsan.gamecomponents.maplayer.troopanimator;
 
-import com.zhsan.common.Point;
 import com.zhsan.gamecomponents.maplayer.MapLayer;
 import com.zhsan.gamecomponents.maplayer.TroopAnimationLayer;
 
@@ -23,13 +22,22 @@ public class AttackAnimator implements Animator {
     }
 
     private int step = 0;
+    private int drawX, drawY;
 
-    public Point step() {
+    public void step() {
         step++;
 
-        Point drawPos = helpers.getPixelFromMapLocation(animation.from);
+        drawX = helpers.getPixelXFromMapLocation(animation.from.x);
+        drawY = helpers.getPixelYFromMapLocation(animation.from.y);
         completed = step == frameCount;
-        return drawPos;
+    }
+
+    public int getDrawX() {
+        return drawX;
+    }
+
+    public int getDrawY() {
+        return drawY;
     }
 
     public boolean isCompleted() {
@@ -1,6 +1,5 @@
 package com.zhsan.gamecomponents.maplayer.troopanimator;
 
-import com.zhsan.common.Point;
 import com.zhsan.gamecomponents.maplayer.MapLayer;
 import com.zhsan.gamecomponents.maplayer.TroopAnimationLayer;
 
@@ -20,16 +19,27 @@ public class MoveAnimator implements Animator {
     }
 
     private int step = 0;
+    private int drawX, drawY;
 
-    public Point step() {
+    public void step() {
         step++;
         float ratio = (float) step / FRAME_COUNT;
 
-        Point drawStart = helpers.getPixelFromMapLocation(animation.from);
-        Point drawEnd = helpers.getPixelFromMapLocation(animation.to);
-        Point drawPos = new Point((int) (drawStart.x * (1 - ratio) + drawEnd.x * ratio), (int) (drawStart.y * (1 - ratio) + drawEnd.y * ratio));
+        int startX = helpers.getPixelXFromMapLocation(animation.from.x);
+        int startY = helpers.getPixelYFromMapLocation(animation.from.y);
+        int endX = helpers.getPixelXFromMapLocation(animation.to.x);
+        int endY = helpers.getPixelYFromMapLocation(animation.to.y);
+        drawX = (int) (startX * (1 - ratio) + endX * ratio);
+        drawY = (int) (startY * (1 - ratio) + endY * ratio);
         completed = step == FRAME_COUNT;
-        return drawPos;
+    }
+
+    public int getDrawX() {
+        return drawX;
+    }
+
+    public int getDrawY() {
+        return drawY;
     }
 
     public boolean isCompleted() {
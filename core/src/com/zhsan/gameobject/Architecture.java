@@ -185,6 +185,7 @@ public class Architecture implements HasPointBelongsFactionGameObject {
     public void changeSection(Section newSection) {
         if (this.belongedSection != null && this.belongedSection.getBelongedFaction() != newSection.getBelongedFaction()) {
             changeFaction(newSection.getBelongedFaction());
+            scenario.occupancyChanged();
         }
         this.belongedSection = newSection;
     }
@@ -315,7 +316,7 @@ public class Architecture implements HasPointBelongsFactionGameObject {
         return this.getPersons().size() > 0 && this.getBelongedFaction() != null && this.getBelongedFaction().getLeader().getLocation() != this;
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.OWN_PERSON)
     public void changeMayor(int id) {
         changeMayor(scenario.getPerson(id), false);
     }
@@ -465,11 +466,24 @@ public class Architecture implements HasPointBelongsFactionGameObject {
         return getPosition().distanceTo(a.getPosition());
     }
 
+    /**
+     * @return Cost for troops of the given kind to travel to the architecture over terrain, or {@link Float#MAX_VALUE}
+     * if they cannot get there
+     */
+    @LuaAI.ExportToLua
+    public float getTravelCostTo(int architectureId, int militaryKindId) {
+        return getTravelCostTo(scenario.getArchitectures().get(architectureId), scenario.getMilitaryKinds().get(militaryKindId));
+    }
+
+    public float getTravelCostTo(Architecture a, MilitaryKind kind) {
+        return scenario.getPathFinder().getTravelCost(kind, this, a);
+    }
+
     public Point getPosition() {
         return Point.getCentroid(location);
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true)
     public Military createMilitary(int kindId) {
         return createMilitary(scenario.getMilitaryKinds().get(kindId));
     }
@@ -487,13 +501,21 @@ public class Architecture implements HasPointBelongsFactionGameObject {
     }
 
     public boolean loseEndurance(int quantity) {
+        boolean blocking = this.endurance > 0;
         this.endurance = Math.max(0, this.endurance - quantity);
+        if (blocking && this.endurance <= 0) {
+            scenario.occupancyChanged();
+        }
         return this.endurance <= 0;
     }
 
     public void advanceDay() {
+        boolean blocking = this.endurance > 0;
         loseInternal();
         developInternal();
+        if (blocking != this.endurance > 0) {
+            scenario.occupancyChanged();
+        }
         recruitMilitaries();
         trainMilitaries();
         if (scenario.getGameDate().getDayOfMonth() == 1) {
@@ -15,7 +15,8 @@ public final class Caches {
     private Caches(){}
 
     /**
-     * Convenience method for getting from caches.
+     * Convenience method for getting from caches. Safe to call from the concurrently running faction AIs; the value may
+     * be calculated more than once on concurrent misses.
      * @param cache The Cache map
      * @param key Key
      * @param ifMiss Supplier returning the value of the corresponding key, will be calculated if cache misses
@@ -24,10 +25,18 @@ public final class Caches {
      * @return Value
      */
     public static <K, V> V get(Map<K, V> cache, K key, Supplier<V> ifMiss) {
-        if (!cache.containsKey(key)) {
-            cache.put(key, ifMiss.get());
+        synchronized (cache) {
+            if (cache.containsKey(key)) {
+                return cache.get(key);
+            }
+        }
+        V value = ifMiss.get();
+        synchronized (cache) {
+            if (!cache.containsKey(key)) {
+                cache.put(key, value);
+            }
+            return cache.get(key);
         }
-        return cache.get(key);
     }
 
     public static final Map<Point, Architecture> architectureAtPoint = new HashMap<>();
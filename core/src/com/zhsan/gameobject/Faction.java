@@ -218,4 +218,8 @@ public class Faction implements GameObject {
         LuaAI.runFactionAi(scenario, this);
     }
 
+    public void applyAiCommands() {
+        LuaAI.applyFactionAiCommands(scenario, this);
+    }
+
 }
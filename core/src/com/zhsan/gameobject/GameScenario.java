@@ -29,6 +29,11 @@ public class GameScenario {
         public void onStartAttackStep(Troop t, HasPointLocationGameObject target, OnTroopAnimationDone onTroopAnimationDone);
 
         public void onAttackDone(Troop t, HasPointLocationGameObject target, List<DamagePack> damagePacks);
+
+        /**
+         * Wait until the callbacks of all started troop steps have run.
+         */
+        public void awaitTroopSteps();
     }
 
     public static final int SAVE_VERSION = 2;
@@ -61,8 +66,15 @@ public class GameScenario {
     private final GameObjectList<Person> persons;
     private final GameObjectList<Military> militaries;
     private final GameObjectList<Troop> troops;
+    private volatile int troopsVersion;
+    private volatile int facilitiesVersion;
+    private volatile int occupancyEpoch;
+
+    private ZhPathFinder pathFinder;
+    private volatile MilitaryKind defaultShipKind;
 
-    private HashMap<Troop, ZhPathFinder> pathFinders = new HashMap<>();
+    // troops by what their orders are aimed at
+    private final Map<Object, Set<Troop>> attackersByTarget = new HashMap<>();
 
     public static List<Pair<FileHandle, GameSurvey>> loadAllGameSurveys() {
         List<Pair<FileHandle, GameSurvey>> result = new ArrayList<>();
@@ -124,10 +136,11 @@ public class GameScenario {
         setupLeaders();
         setupMayors();
         setupFacilities();
+        troops.forEach(Troop::registerOrder);
     }
 
     private final void populateConnections(Architecture b, int distance) {
-        ZhPathFinder pathFinder = new ZhPathFinder(this, this.getGameMap(), null);
+        ZhPathFinder pathFinder = getPathFinder();
         for (Architecture a : this.getArchitectures()) {
             if (a == b) continue;
             if (b.getPosition().taxiDistanceTo(a.getPosition()) <= distance) {
@@ -214,7 +227,7 @@ public class GameScenario {
                             f.setBelongedArchitecture(a);
                             f.setKind(kind);
                             f.setLocation(p);
-                            facilities.add(f);
+                            addFacility(f);
                             break;
                         }
                     }
@@ -239,7 +252,12 @@ public class GameScenario {
     }
 
     public MilitaryKind getDefaultShipKind() {
-        return militaryKinds.filter(MilitaryKind::isShip).min((k, l) -> Integer.compare(k.getId(), l.getId()));
+        MilitaryKind result = defaultShipKind;
+        if (result == null) {
+            result = militaryKinds.filter(MilitaryKind::isShip).min((k, l) -> Integer.compare(k.getId(), l.getId()));
+            defaultShipKind = result;
+        }
+        return result;
     }
 
     public GameObjectList<TerrainDetail> getTerrainDetails() {
@@ -279,6 +297,18 @@ public class GameScenario {
         return new GameObjectList<>(facilities, true);
     }
 
+    /**
+     * @return A number which changes whenever a facility is added
+     */
+    public int getFacilitiesVersion() {
+        return facilitiesVersion;
+    }
+
+    public void addFacility(Facility f) {
+        facilities.add(f);
+        facilitiesVersion++;
+    }
+
     public GameObjectList<FacilityKind> getFacilityKinds() {
         return new GameObjectList<>(facilityKinds, true);
     }
@@ -355,11 +385,32 @@ public class GameScenario {
         return new GameObjectList<>(troops, true);
     }
 
+    /**
+     * @return A number which changes whenever a troop is added or removed
+     */
+    public int getTroopsVersion() {
+        return troopsVersion;
+    }
+
     public void removeTroop(Troop t, boolean removeMilitary) {
         if (removeMilitary) {
             militaries.remove(t.getMilitary());
         }
         troops.remove(t);
+        troopsVersion++;
+        occupancyEpoch++;
+    }
+
+    /**
+     * @return A number which changes whenever a troop is added, removed or moved, or an architecture changes hands or
+     * starts or stops blocking troops, that is whenever where troops can move might change
+     */
+    public int getOccupancyEpoch() {
+        return occupancyEpoch;
+    }
+
+    void occupancyChanged() {
+        occupancyEpoch++;
     }
 
     public GameObjectList<MilitaryTerrain> getMilitaryTerrains() {
@@ -386,11 +437,20 @@ public class GameScenario {
         return mt;
     }
 
-    public ZhPathFinder getPathFinder(Troop kind) {
-        if (pathFinders.get(kind) == null) {
-            pathFinders.put(kind, new ZhPathFinder(this, gameMap, kind));
+    public synchronized ZhPathFinder getPathFinder() {
+        if (pathFinder == null) {
+            pathFinder = new ZhPathFinder(this, gameMap);
         }
-        return pathFinders.get(kind);
+        return pathFinder;
+    }
+
+    /**
+     * @return A path between the two tiles over terrain passable by any military kind, including both ends, or null if
+     * there is none
+     */
+    @LuaAI.ExportToLua
+    public List<Point> findPath(int fromX, int fromY, int toX, int toY) {
+        return getPathFinder().findPath(new Point(fromX, fromY), new Point(toX, toY));
     }
 
     public Military createMilitary(Architecture location, MilitaryKind kind) {
@@ -422,38 +482,119 @@ public class GameScenario {
                 Troop t = it.next();
                 Point oldLoc = t.getPosition();
 
-                HasPointLocationGameObject target = t.canAttackTarget();
-                if (!t.stepForward()) {
-                    if (target != null) {
-                        onTroopDone.onStartAttackStep(t, target, () -> {
-                            List<DamagePack> damagePacks = t.attack();
-                            onTroopDone.onAttackDone(t, target, damagePacks);
-                        });
-                    }
+                // troops stop once their target is in range, and attack in the combat phase
+                if (t.canAttackTarget() != null || !t.stepForward()) {
                     it.remove();
-                } else {
-                    Point newLoc = t.getPosition();
-                    if (!oldLoc.equals(newLoc)) {
-                        onTroopDone.onStartTroopStep(t, oldLoc, newLoc, () -> {
-                            if (t.tryEnter(newLoc)) {
-                                it.remove();
-                                return;
-                            }
-                            if (target != null) {
-                                List<DamagePack> damagePacks = t.attack();
-                                onTroopDone.onAttackDone(t, target, damagePacks);
-                            }
-                        });
-                    } else {
+                    continue;
+                }
+
+                Point newLoc = t.getPosition();
+                if (!oldLoc.equals(newLoc)) {
+                    // entered once the step is shown, but stops here
+                    if (t.canEnterTarget(newLoc)) {
                         it.remove();
                     }
+                    onTroopDone.onStartTroopStep(t, oldLoc, newLoc, () -> t.tryEnter(newLoc));
+                } else {
+                    it.remove();
                 }
             }
         } while (movingTroops.size() > 0);
+
+        // troops entering architectures are removed by the step callbacks, which may still be running elsewhere
+        onTroopDone.awaitTroopSteps();
+        resolveCombat(onTroopDone);
+    }
+
+    /**
+     * Resolve the attacks of all troops able to attack their targets together. Damage of every attack is worked out from
+     * the state before any of them, then all damage is applied, and only then are destroyed troops routed and orders
+     * aimed at destroyed troops and architectures dropped. The damage of each attack is passed on to the UI after its
+     * attack step.
+     */
+    private void resolveCombat(OnTroopDone onTroopDone) {
+        List<Troop> attackers = new ArrayList<>();
+        List<HasPointLocationGameObject> targets = new ArrayList<>();
+        List<List<DamagePack>> planned = new ArrayList<>();
+        for (Troop t : troops) {
+            HasPointLocationGameObject target = t.canAttackTarget();
+            if (target != null) {
+                attackers.add(t);
+                targets.add(target);
+                planned.add(t.planAttack(target));
+            }
+        }
+        if (attackers.isEmpty()) return;
+
+        // an object is destroyed by the first damage taking it to zero, later damage in the same phase is still shown
+        Set<GameObject> destroyed = new LinkedHashSet<>();
+        List<List<DamagePack>> applied = new ArrayList<>(planned.size());
+        for (List<DamagePack> damagePacks : planned) {
+            List<DamagePack> result = new ArrayList<>(damagePacks.size());
+            for (DamagePack d : damagePacks) {
+                boolean destroy = false;
+                if (d.object instanceof Troop) {
+                    destroy = ((Troop) d.object).loseQuantity(-d.quantity) && destroyed.add(d.object);
+                } else if (d.object instanceof Architecture) {
+                    destroy = ((Architecture) d.object).loseEndurance(-d.quantity) && destroyed.add(d.object);
+                }
+                result.add(new DamagePack(d.object, d.location, d.quantity, destroy));
+            }
+            applied.add(result);
+        }
+
+        for (GameObject o : destroyed) {
+            getAttackers(o).forEach(Troop::cancelOrder);
+            if (o instanceof Troop) {
+                ((Troop) o).rout();
+            }
+        }
+
+        for (int i = 0; i < attackers.size(); ++i) {
+            Troop t = attackers.get(i);
+            HasPointLocationGameObject target = targets.get(i);
+            List<DamagePack> damagePacks = applied.get(i);
+            onTroopDone.onStartAttackStep(t, target, () -> onTroopDone.onAttackDone(t, target, damagePacks));
+        }
+    }
+
+    /**
+     * Update the index of attackers when the order of a troop changes.
+     * @param oldTarget What the old order is aimed at, see {@link #getAttackers(Object)}, or null
+     * @param newTarget What the new order is aimed at, or null
+     */
+    void orderTargetChanged(Troop t, Object oldTarget, Object newTarget) {
+        synchronized (attackersByTarget) {
+            if (oldTarget != null) {
+                Set<Troop> attackers = attackersByTarget.get(oldTarget);
+                if (attackers != null) {
+                    attackers.remove(t);
+                    if (attackers.isEmpty()) {
+                        attackersByTarget.remove(oldTarget);
+                    }
+                }
+            }
+            if (newTarget != null) {
+                attackersByTarget.computeIfAbsent(newTarget, k -> new LinkedHashSet<>()).add(t);
+            }
+        }
+    }
+
+    /**
+     * @param target An architecture or troop, or a location for troops ordered to attack whatever is there
+     * @return Troops ordered to attack the target
+     */
+    public List<Troop> getAttackers(Object target) {
+        synchronized (attackersByTarget) {
+            Set<Troop> attackers = attackersByTarget.get(target);
+            return attackers == null ? Collections.emptyList() : new ArrayList<>(attackers);
+        }
     }
 
     public void addTroop(Troop t) {
         troops.add(t);
+        troopsVersion++;
+        occupancyEpoch++;
     }
 
     public enum Season {
@@ -207,6 +207,7 @@ public class Military implements HasPointBelongsFactionGameObject {
 
     public void setKind(MilitaryKind kind) {
         this.kind = kind;
+        troopStatsChanged();
     }
 
     public void setLocation(Architecture location) {
@@ -251,7 +252,7 @@ public class Military implements HasPointBelongsFactionGameObject {
         return leader;
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.OWN_PERSON)
     public void setLeader(int id) {
         setLeader(scenario.getPerson(id));
     }
@@ -261,6 +262,7 @@ public class Military implements HasPointBelongsFactionGameObject {
             throw new IllegalArgumentException("Leader of military must be in the same location.");
         }
         this.leader = leader;
+        troopStatsChanged();
     }
 
     public GameObjectList<Person> getPersons() {
@@ -269,6 +271,7 @@ public class Military implements HasPointBelongsFactionGameObject {
 
     public Military setPersons(GameObjectList<Person> persons) {
         this.persons = new GameObjectList<>(persons);
+        troopStatsChanged();
         return this;
     }
 
@@ -325,21 +328,32 @@ public class Military implements HasPointBelongsFactionGameObject {
         this.morale = (int) ((float) (quantity * this.morale + x * morale) / (quantity + x));
         this.combativity = (int) ((float) (quantity * this.combativity + x * combativity) / (quantity + x));
         this.quantity = Math.min(quantity + x, getKind().getQuantity());
+        troopStatsChanged();
     }
 
     public void increaseMorale(int x) {
         morale = Math.min(morale + x, GlobalVariables.maxMorale);
+        troopStatsChanged();
     }
 
     public void increaseCombativity(int x) {
         combativity = Math.min(combativity + x, GlobalVariables.maxCombativity);
+        troopStatsChanged();
     }
 
     public void decreaseQuantity(int quantity) {
         this.quantity = Math.max(0, this.quantity - quantity);
+        troopStatsChanged();
     }
 
-    @LuaAI.ExportToLua
+    private void troopStatsChanged() {
+        HasPointLocationGameObject l = location == null ? null : location.get();
+        if (l instanceof Troop) {
+            ((Troop) l).invalidateStats();
+        }
+    }
+
+    @LuaAI.ExportToLua(mutator = true)
     public Troop startCampaign(int x, int y) {
         return startCampaign(new Point(x, y));
     }
@@ -378,6 +392,15 @@ public class Military implements HasPointBelongsFactionGameObject {
         return t;
     }
 
+    /**
+     * Hand the AI tags given to the military while its campaign waited in the AI command buffer over to the troop it
+     * started, so that later troops of the military do not inherit them.
+     */
+    public void passAiTagsTo(Troop t) {
+        t.setAiTags(aiTags);
+        aiTags = "";
+    }
+
     public int getMovingDays() {
         return movingDays;
     }
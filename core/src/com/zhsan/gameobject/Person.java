@@ -437,7 +437,7 @@ public class Person implements HasPointBelongsFactionGameObject {
         }
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.OWN_ARCHITECTURE)
     public void moveToArchitecture(int toId) {
         moveToArchitecture(scenario.getArchitectures().get(toId));
     }
@@ -108,6 +108,23 @@ public class Troop implements HasPointBelongsFactionGameObject {
             return null;
         }
 
+        /**
+         * @return What the order is aimed at, as indexed by {@link GameScenario#getAttackers(Object)}: the architecture or
+         * troop, or the location for attack location orders. Null for orders not aimed at anything.
+         */
+        Object targetKey() {
+            switch (kind) {
+                case ATTACK_ARCH:
+                    return scenario.getArchitectures().get(targetId);
+                case ATTACK_TROOP:
+                    return scenario.getTroops().get(targetId);
+                case ATTACK_LOCATION:
+                    return targetLocation;
+                default:
+                    return null;
+            }
+        }
+
         HasPointLocationGameObject target() {
             switch (kind) {
                 case ATTACK_ARCH:
@@ -132,6 +149,8 @@ public class Troop implements HasPointBelongsFactionGameObject {
 
     public static final Order ORDER_IDLE = new Order(null, OrderKind.IDLE, null);
     private Order order = ORDER_IDLE;
+    // what the order was aimed at when given, as the target cannot be looked up by id any more once it is destroyed
+    private Object orderTarget;
 
     private volatile boolean destroyed = false;
 
@@ -226,6 +245,8 @@ public class Troop implements HasPointBelongsFactionGameObject {
 
     public Troop setLocation(Point location) {
         this.location = location;
+        invalidateStats();
+        scenario.occupancyChanged();
         return this;
     }
 
@@ -267,11 +288,7 @@ public class Troop implements HasPointBelongsFactionGameObject {
 
     @LuaAI.ExportToLua
     public MilitaryKind getKind() {
-        if (scenario.getTerrainAt(getPosition()).isWater()) {
-            return scenario.getDefaultShipKind();
-        } else {
-            return getMilitary().getKind();
-        }
+        return getStats().kind;
     }
 
     public Person getLeader() {
@@ -295,47 +312,93 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return this;
     }
 
+    /**
+     * Stats of the troop used in combat and by the AI, worked out once and kept until something they depend on changes:
+     * the troop moves, its military changes, or a new day starts.
+     */
+    private static final class Stats {
+        private final MilitaryKind kind;
+        private final int command, strength, intelligence;
+        private final float offense, defense;
+
+        private Stats(Troop troop) {
+            GameScenario scenario = troop.scenario;
+            Military military = troop.getMilitary();
+            Person leader = military.getLeader();
+            GameObjectList<Person> persons = military.getPersons();
+
+            TerrainDetail terrain = scenario.getTerrainAt(troop.getPosition());
+            this.kind = terrain.isWater() ? scenario.getDefaultShipKind() : military.getKind();
+
+            this.command = (int) (leader.getCommand() +
+                    Math.max(persons.getAll().stream()
+                            .max((p, q) -> p.getCommand() - q.getCommand())
+                            .map(Person::getCommand)
+                            .orElse(0) - leader.getCommand(), 0) * GlobalVariables.troopCommandPersonFactor);
+            this.strength = (int) (leader.getStrength() +
+                    Math.max(persons.getAll().stream()
+                            .max((p, q) -> p.getStrength() - q.getStrength())
+                            .map(Person::getStrength)
+                            .orElse(0) - leader.getStrength(), 0) * GlobalVariables.troopStrengthPersonFactor);
+            this.intelligence = (int) (leader.getIntelligence() +
+                    Math.max(persons.getAll().stream()
+                            .max((p, q) -> p.getIntelligence() - q.getIntelligence())
+                            .map(Person::getIntelligence)
+                            .orElse(0) - leader.getIntelligence(), 0) * GlobalVariables.troopIntelligencePersonFactor);
+
+            float multiple = scenario.getMilitaryTerrain(kind, terrain).getMultiple();
+            this.offense = (command * 0.7f + strength * 0.3f) / 100.0f *
+                    military.getMorale() / 100.0f *
+                    multiple *
+                    (kind.getOffense() + kind.getOffensePerUnit() * military.getUnitCount());
+            this.defense = command / 100.0f *
+                    military.getMorale() / 100.0f *
+                    multiple *
+                    (kind.getDefense() + kind.getDefensePerUnit() * military.getUnitCount());
+        }
+    }
+
+    private volatile Stats stats;
+
+    private Stats getStats() {
+        Stats result = stats;
+        if (result == null) {
+            result = new Stats(this);
+            stats = result;
+        }
+        return result;
+    }
+
+    /**
+     * Work out the stats of the troop again the next time they are asked for.
+     */
+    void invalidateStats() {
+        stats = null;
+    }
+
     @LuaAI.ExportToLua
     public int getCommand() {
-        return (int) (getLeader().getCommand() +
-                Math.max(getMilitary().getPersons().getAll().stream()
-                                .max((p, q) -> p.getCommand() - q.getCommand())
-                                .map(Person::getCommand)
-                                .orElse(0) - getLeader().getCommand(), 0) * GlobalVariables.troopCommandPersonFactor);
+        return getStats().command;
     }
 
     @LuaAI.ExportToLua
     public int getStrength() {
-        return (int) (getLeader().getStrength() +
-                Math.max(getMilitary().getPersons().getAll().stream()
-                        .max((p, q) -> p.getStrength() - q.getStrength())
-                        .map(Person::getStrength)
-                        .orElse(0) - getLeader().getStrength(), 0) * GlobalVariables.troopStrengthPersonFactor);
+        return getStats().strength;
     }
 
     @LuaAI.ExportToLua
     public int getIntelligence() {
-        return (int) (getLeader().getIntelligence() +
-                Math.max(getMilitary().getPersons().getAll().stream()
-                        .max((p, q) -> p.getIntelligence() - q.getIntelligence())
-                        .map(Person::getIntelligence)
-                        .orElse(0) - getLeader().getIntelligence(), 0) * GlobalVariables.troopIntelligencePersonFactor);
+        return getStats().intelligence;
     }
 
     @LuaAI.ExportToLua
     public float getOffense() {
-        return (getCommand() * 0.7f + getStrength() * 0.3f) / 100.0f *
-                getMorale() / 100.0f *
-                scenario.getMilitaryTerrain(getKind(), scenario.getTerrainAt(getPosition())).getMultiple() *
-                (getKind().getOffense() + getKind().getOffensePerUnit() * getMilitary().getUnitCount());
+        return getStats().offense;
     }
 
     @LuaAI.ExportToLua
     public float getDefense() {
-        return getCommand() / 100.0f *
-                getMorale() / 100.0f *
-                scenario.getMilitaryTerrain(getKind(), scenario.getTerrainAt(getPosition())).getMultiple() *
-                (getKind().getDefense() + getKind().getDefensePerUnit() * getMilitary().getUnitCount());
+        return getStats().defense;
     }
 
     @LuaAI.ExportToLua
@@ -347,25 +410,32 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return getMilitary().getUnitCount();
     }
 
+    /**
+     * Lose soldiers. The troop is not routed here even if none are left, see {@link #rout()}.
+     * @return Whether no soldiers are left
+     */
     public boolean loseQuantity(int quantity) {
         getMilitary().decreaseQuantity(quantity);
-        boolean destroy = checkDestroy();
-        if (destroy) {
-            scenario.getTroops().getAll().stream()
-                    .filter(x -> x.getTarget() == this)
-                    .forEach(x -> x.order = ORDER_IDLE);
-            this.getMilitary().getAllPersons().forEach(p -> p.moveToArchitecture(this.getPosition(), this.startArchitecture));
-            destroy(true);
-        }
-        return destroy;
+        return checkDestroy();
     }
 
     private boolean checkDestroy() {
         return this.getQuantity() <= 0;
     }
 
+    /**
+     * Remove the troop after losing all its soldiers, sending its persons back to where it started.
+     */
+    void rout() {
+        scenario.getAttackers(this.getPosition()).forEach(Troop::cancelOrder);
+        this.getMilitary().getAllPersons().forEach(p -> p.moveToArchitecture(this.getPosition(), this.startArchitecture));
+        destroy(true);
+    }
+
     private void destroy(boolean removeMilitary) {
         destroyed = true;
+        scenario.getAttackers(this).forEach(Troop::cancelOrder);
+        setOrder(ORDER_IDLE);
         scenario.removeTroop(this, removeMilitary);
     }
 
@@ -389,44 +459,66 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return true;
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.OWN_ARCHITECTURE)
     public void giveMoveToEnterOrder(int archId) {
         giveMoveToEnterOrder(scenario.getArchitecture(archId));
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.ARCHITECTURE)
     public void giveMoveToArchitectureOrder(int archId) {
         giveMoveToOrder(scenario.getArchitecture(archId).getPosition());
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.ARCHITECTURE)
     public void giveAttackArchitectureOrder(int archId) {
         giveAttackOrder(scenario.getArchitecture(archId));
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true, target = LuaAI.CommandTarget.TROOP)
     public void giveAttackTroopOrder(int troopId) {
         giveAttackOrder(scenario.getTroops().get(troopId));
     }
 
+    private void setOrder(Order order) {
+        Object target = order.targetKey();
+        scenario.orderTargetChanged(this, orderTarget, target);
+        this.orderTarget = target;
+        this.order = order;
+    }
+
+    /**
+     * Add the order loaded with the troop to the index of attackers, once all troops and architectures are loaded.
+     */
+    void registerOrder() {
+        orderTarget = order.targetKey();
+        scenario.orderTargetChanged(this, null, orderTarget);
+    }
+
+    /**
+     * Drop the order, as its target is gone.
+     */
+    void cancelOrder() {
+        setOrder(ORDER_IDLE);
+    }
+
     public void giveMoveToOrder(Point location) {
-        this.order = new Order(scenario, OrderKind.MOVE, location);
+        setOrder(new Order(scenario, OrderKind.MOVE, location));
     }
 
     public void giveMoveToEnterOrder(Architecture a) {
-        this.order = new Order(scenario, OrderKind.MOVE_ENTER, a.getId());
+        setOrder(new Order(scenario, OrderKind.MOVE_ENTER, a.getId()));
     }
 
     public void giveAttackOrder(Point location) {
-        this.order = new Order(scenario, OrderKind.ATTACK_LOCATION, location);
+        setOrder(new Order(scenario, OrderKind.ATTACK_LOCATION, location));
     }
 
     public void giveAttackOrder(Troop troop) {
-        this.order = new Order(scenario, OrderKind.ATTACK_TROOP, troop.getId());
+        setOrder(new Order(scenario, OrderKind.ATTACK_TROOP, troop.getId()));
     }
 
     public void giveAttackOrder(Architecture architecture) {
-        this.order = new Order(scenario, OrderKind.ATTACK_ARCH, architecture.getId());
+        setOrder(new Order(scenario, OrderKind.ATTACK_ARCH, architecture.getId()));
     }
 
     @LuaAI.ExportToLua
@@ -444,12 +536,34 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return this.getPosition().taxiDistanceTo(scenario.getArchitecture(archId).getPosition()) <= 5;
     }
 
-    private Queue<Point> currentPath;
+    /**
+     * @return A path for this troop to the given tile, including both ends, or null if there is none
+     */
+    @LuaAI.ExportToLua
+    public List<Point> findPathTo(int x, int y) {
+        return scenario.getPathFinder().findPath(this, this.location, new Point(x, y));
+    }
+
+    /**
+     * @return Tiles this troop can reach in one day
+     */
+    @LuaAI.ExportToLua
+    public List<Point> getMovableLocations() {
+        return scenario.getPathFinder().getMovementRange(this, this.location, getKind().getMovability()).getPoints();
+    }
+
+    // planned route to the target, not including the current location, kept across days while it stays usable
+    private ArrayDeque<Point> currentPath;
+    private Point currentPathTarget;
+    private MilitaryKind currentPathKind;
     private int currentMovability;
 
     private boolean attacked;
 
     public void initExecuteOrder() {
+        // persons may have grown over the day change
+        invalidateStats();
+
         Point targetLocation;
         if (this.order.targetLocation != null) {
             targetLocation = this.order.targetLocation;
@@ -463,21 +577,116 @@ public class Troop implements HasPointBelongsFactionGameObject {
 
         if (targetLocation != null) {
             currentMovability = this.getMilitary().getKind().getMovability();
-            currentPath = new ArrayDeque<>(scenario.getPathFinder(this).findPath(this.location, targetLocation));
-            currentPath.poll();
+            if (isCurrentPathUsable(targetLocation)) {
+                repairCurrentPath();
+            } else {
+                planPath(targetLocation);
+            }
         } else {
             currentPath = null;
+            currentPathTarget = null;
         }
 
         attacked = false;
     }
 
+    private void planPath(Point targetLocation) {
+        List<Point> path = null;
+        if (this.order.kind == OrderKind.ATTACK_ARCH) {
+            // troops sent at the same architecture share the search
+            path = scenario.getPathFinder().findPathToArchitecture(this, this.location,
+                    scenario.getArchitectures().get(this.order.targetId));
+        }
+        if (path == null) {
+            path = scenario.getPathFinder().findRoute(this, this.location, targetLocation);
+        }
+        if (path == null) {
+            // cut off from the target, try again another day
+            currentPath = null;
+            currentPathTarget = null;
+            return;
+        }
+        currentPath = new ArrayDeque<>(path);
+        currentPath.poll();
+        currentPathTarget = targetLocation;
+        currentPathKind = getKind();
+    }
+
+    /**
+     * The path planned on an earlier day is still worth following if it leads to the same target, starts next to the
+     * troop and was planned for the same kind, as the kind changes with the terrain the troop is on. A path to a far
+     * target only covers the first part of the route, and is planned again once it is used up.
+     */
+    private boolean isCurrentPathUsable(Point targetLocation) {
+        if (currentPath == null || !targetLocation.equals(currentPathTarget) || getKind() != currentPathKind) {
+            return false;
+        }
+        Point next = currentPath.peek();
+        return next == null ? location.equals(targetLocation) : next.taxiDistanceTo(location) == 1;
+    }
+
+    /**
+     * Route around tiles on the part of the path reachable today which have become blocked since the path is planned,
+     * joining the planned path again at the first free tile after them. Blocked tiles further away are left until the
+     * troop comes close, as other troops will have moved by then.
+     */
+    private void repairCurrentPath() {
+        MilitaryKind kind = getKind();
+        List<Point> path = new ArrayList<>(currentPath);
+
+        int blocked = -1;
+        float reach = 0;
+        for (int i = 0; i < path.size(); ++i) {
+            Point p = path.get(i);
+            if (!canMoveInto(p)) {
+                blocked = i;
+                break;
+            }
+            reach += scenario.getMilitaryTerrain(kind, scenario.getTerrainAt(p)).getAdaptability();
+            if (reach > currentMovability) {
+                return;
+            }
+        }
+        if (blocked < 0) {
+            return;
+        }
+
+        int rejoin = -1;
+        for (int i = blocked + 1; i < path.size(); ++i) {
+            if (canMoveInto(path.get(i))) {
+                rejoin = i;
+                break;
+            }
+        }
+        if (rejoin < 0) {
+            // blocked up to the end, most likely by the target itself, nothing better to do
+            return;
+        }
+
+        List<Point> detour = scenario.getPathFinder().findPath(this, this.location, path.get(rejoin));
+        if (detour == null) {
+            // the planned path cannot be joined again, look for another way to the target
+            planPath(currentPathTarget);
+            return;
+        }
+        ArrayDeque<Point> repaired = new ArrayDeque<>(detour.subList(1, detour.size()));
+        repaired.addAll(path.subList(rejoin + 1, path.size()));
+        currentPath = repaired;
+    }
+
     public boolean stepForward() {
         if (currentPath == null) {
             return true;
         }
 
-        Point p = currentPath.poll();
+        // only take the tile off the path once moved into it, so the rest of the path can be followed another day
+        Point p = currentPath.peek();
+        if (p == null && !location.equals(currentPathTarget)) {
+            // the first part of a long route is used up, refine the next part
+            planPath(currentPathTarget);
+            if (currentPath == null) return false;
+            p = currentPath.peek();
+        }
         if (p == null) return false;
 
         if (!canMoveInto(p)) {
@@ -489,6 +698,9 @@ public class Troop implements HasPointBelongsFactionGameObject {
         if (cost <= currentMovability) {
             currentMovability -= cost;
             location = p;
+            currentPath.poll();
+            invalidateStats();
+            scenario.occupancyChanged();
         } else {
             return false;
         }
@@ -511,25 +723,33 @@ public class Troop implements HasPointBelongsFactionGameObject {
         }
     }
 
+    /**
+     * @return Whether the troop is ordered to enter an architecture it can enter from the given location
+     */
+    boolean canEnterTarget(Point p) {
+        return order.kind == OrderKind.MOVE_ENTER && canEnter(p, scenario.getArchitectures().get(order.targetId));
+    }
+
     public boolean tryEnter(Point p) {
-        if (order.kind == OrderKind.MOVE_ENTER) {
-            Architecture a = scenario.getArchitectures().get(order.targetId);
-            if (canEnter(p, a)) {
-                enter(a);
-                return true;
-            }
+        if (!destroyed && canEnterTarget(p)) {
+            enter(scenario.getArchitectures().get(order.targetId));
+            return true;
         }
         return false;
     }
 
-    public List<DamagePack> attack() {
-        if (attacked) return Collections.emptyList();
-
-        HasPointLocationGameObject target = order.target();
+    /**
+     * Work out the damage of attacking the target, from the state of the troop and the target as they are now, without
+     * applying it. The troop will not attack again until the next day.
+     * @return Damage to the target, then damage to this troop from the target fighting back. Destroyed flags are not
+     * set, as nothing is applied yet.
+     */
+    List<DamagePack> planAttack(HasPointLocationGameObject target) {
+        attacked = true;
         if (target instanceof Architecture) {
-            return attackArchitecture((Architecture) target);
+            return planAttackArchitecture((Architecture) target);
         } else if (target instanceof Troop) {
-            return attackTroop((Troop) target);
+            return planAttackTroop((Troop) target);
         } else {
             return Collections.emptyList();
         }
@@ -540,7 +760,7 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return getKind().getRangeLo() <= dist && dist <= getKind().getRangeHi();
     }
 
-    private List<DamagePack> attackArchitecture(Architecture target) {
+    private List<DamagePack> planAttackArchitecture(Architecture target) {
         Optional<Point> attackOptPoint = target.getLocations().stream().filter(this::isLocationInAttackRange).findFirst();
         if (!attackOptPoint.isPresent()) return Collections.emptyList();
         Point attackPoint = attackOptPoint.get();
@@ -552,25 +772,15 @@ public class Troop implements HasPointBelongsFactionGameObject {
         float ratio = offense / defense;
 
         int damage = Math.round(GlobalVariables.baseArchitectureDamage * ratio * this.getKind().getArchitectureOffense());
-        boolean destroy = target.loseEndurance(damage);
-        damagePacks.add(new DamagePack(target, attackPoint, -damage, destroy));
-        if (destroy) {
-            scenario.getTroops().getAll().stream()
-                    .filter(x -> x.getTarget() == target)
-                    .forEach(x -> x.order = ORDER_IDLE);
-        }
-
-        int reactDamage;
-        reactDamage = Math.round(GlobalVariables.baseDamage * (1 / ratio) * GlobalVariables.reactDamageFactor);
-        destroy = this.loseQuantity(reactDamage);
-        damagePacks.add(new DamagePack(this, this.getPosition(), -reactDamage, destroy));
+        damagePacks.add(new DamagePack(target, attackPoint, -damage, false));
 
-        attacked = true;
+        int reactDamage = Math.round(GlobalVariables.baseDamage * (1 / ratio) * GlobalVariables.reactDamageFactor);
+        damagePacks.add(new DamagePack(this, this.getPosition(), -reactDamage, false));
 
         return damagePacks;
     }
 
-    private List<DamagePack> attackTroop(Troop target) {
+    private List<DamagePack> planAttackTroop(Troop target) {
         if (!isLocationInAttackRange(target.getPosition())) return Collections.emptyList();
 
         List<DamagePack> damagePacks = new ArrayList<>();
@@ -580,18 +790,13 @@ public class Troop implements HasPointBelongsFactionGameObject {
         float ratio = offense / defense;
 
         int damage = Math.round(GlobalVariables.baseDamage * ratio);
-        boolean destroy = target.loseQuantity(damage);
-        damagePacks.add(new DamagePack(target, target.getPosition(), -damage, destroy));
+        damagePacks.add(new DamagePack(target, target.getPosition(), -damage, false));
 
-        int reactDamage;
         if (target.isLocationInAttackRange(this.getPosition())) {
-            reactDamage = Math.round(GlobalVariables.baseDamage * (1 / ratio) * GlobalVariables.reactDamageFactor);
-            destroy = this.loseQuantity(reactDamage);
-            damagePacks.add(new DamagePack(this, this.getPosition(), -reactDamage, destroy));
+            int reactDamage = Math.round(GlobalVariables.baseDamage * (1 / ratio) * GlobalVariables.reactDamageFactor);
+            damagePacks.add(new DamagePack(this, this.getPosition(), -reactDamage, false));
         }
 
-        attacked = true;
-
         return damagePacks;
     }
 
@@ -619,7 +824,7 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return false;
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true)
     public void enter() {
         Iterator<Point> points = location.spiralOutIterator(1);
         while (points.hasNext()) {
@@ -643,7 +848,7 @@ public class Troop implements HasPointBelongsFactionGameObject {
         return a != null && a.getBelongedFaction() != this.getBelongedFaction();
     }
 
-    @LuaAI.ExportToLua
+    @LuaAI.ExportToLua(mutator = true)
     public void occupy() {
         Architecture a = scenario.getArchitectureAt(getPosition());
         a.changeSection(this.getBelongedSection());
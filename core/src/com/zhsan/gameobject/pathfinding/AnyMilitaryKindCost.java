@@ -0,0 +1,32 @@
+package com.zhsan.gameobject.pathfinding;
+
+import com.zhsan.gameobject.GameMap;
+import com.zhsan.gameobject.GameScenario;
+
+/**
+ * Every tile passable by some military kind costs 1, regardless of troops and architectures on the way.
+ */
+final class AnyMilitaryKindCost implements MovementCost {
+
+    private final int width;
+    private final float[] tileCosts;
+
+    /**
+     * The terrain of the whole map is looked at once. The result never changes and is shared by all queries.
+     */
+    AnyMilitaryKindCost(GameScenario scen, GameMap map) {
+        this.width = map.getWidth();
+        this.tileCosts = new float[map.getWidth() * map.getHeight()];
+        for (int y = 0; y < map.getHeight(); ++y) {
+            for (int x = 0; x < map.getWidth(); ++x) {
+                tileCosts[y * width + x] = map.getTerrainAt(x, y).isPassableByAnyMilitaryKind(scen) ? 1 : IMPASSABLE;
+            }
+        }
+    }
+
+    @Override
+    public float getCost(int x, int y) {
+        return tileCosts[y * width + x];
+    }
+
+}
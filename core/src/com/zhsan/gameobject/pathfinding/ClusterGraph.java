@@ -0,0 +1,296 @@
+package com.zhsan.gameobject.pathfinding;
+
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.zhsan.common.Point;
+
+import java.util.Arrays;
+
+/**
+ * Abstract graph of the map for one military kind, for planning long routes.
+ *
+ * The map is divided into square clusters. Where passable tiles face each other across the border of two clusters,
+ * entrance tiles are placed on both sides; entrances in the same cluster are connected with the cost of the cheapest path
+ * between them within the cluster. Only terrain is considered, as it never changes in game, so the graph is built once.
+ * A long route is planned over the entrances first, and only its beginning is searched tile by tile.
+ */
+final class ClusterGraph {
+
+    // runs of border tiles at least this long get an entrance at each end instead of one in the middle
+    private static final int LONG_ENTRANCE = 6;
+
+    private final int width, height, clusterSize, clustersX;
+
+    // cost of entering each tile
+    private final float[] tileCost;
+    private final float minTileCost;
+
+    private final IntArray nodeTiles = new IntArray();
+    private final IntIntMap tileNodes = new IntIntMap();
+    private final IntArray[] clusterNodes;
+
+    private final IntArray[] edgeTargets;
+    private final FloatArray[] edgeCosts;
+
+    /**
+     * @param tileCost Cost of entering each tile, indexed by {@code y * width + x}, {@link MovementCost#IMPASSABLE} for
+     *                 tiles which cannot be entered
+     * @param ws Workspace to search in while building
+     */
+    ClusterGraph(int width, int height, int clusterSize, float[] tileCost, SearchWorkspace ws) {
+        this.width = width;
+        this.height = height;
+        this.clusterSize = clusterSize;
+        this.tileCost = tileCost;
+        this.clustersX = (width + clusterSize - 1) / clusterSize;
+        int clustersY = (height + clusterSize - 1) / clusterSize;
+
+        float min = Float.MAX_VALUE;
+        for (float c : tileCost) {
+            min = Math.min(min, c);
+        }
+        this.minTileCost = min;
+
+        clusterNodes = new IntArray[clustersX * clustersY];
+        for (int i = 0; i < clusterNodes.length; ++i) {
+            clusterNodes[i] = new IntArray();
+        }
+
+        // entrances, connected across the borders
+        for (int cy = 0; cy < clustersY; ++cy) {
+            for (int cx = 0; cx < clustersX; ++cx) {
+                int x0 = cx * clusterSize, y0 = cy * clusterSize;
+                int x1 = Math.min(width, x0 + clusterSize) - 1, y1 = Math.min(height, y0 + clusterSize) - 1;
+                if (x1 + 1 < width) {
+                    addEntrances(x1, y0, x1 + 1, y0, 0, 1, y1 - y0 + 1);
+                }
+                if (y1 + 1 < height) {
+                    addEntrances(x0, y1, x0, y1 + 1, 1, 0, x1 - x0 + 1);
+                }
+            }
+        }
+
+        edgeTargets = new IntArray[nodeTiles.size];
+        edgeCosts = new FloatArray[nodeTiles.size];
+        for (int i = 0; i < nodeTiles.size; ++i) {
+            edgeTargets[i] = new IntArray(8);
+            edgeCosts[i] = new FloatArray(8);
+        }
+        for (int i = 0; i < nodeTiles.size; ++i) {
+            int tile = nodeTiles.get(i);
+            int x = tile % width, y = tile / width;
+            // the other side of a border is right next to the entrance
+            connectNeighbour(i, x + 1, y);
+            connectNeighbour(i, x - 1, y);
+            connectNeighbour(i, x, y + 1);
+            connectNeighbour(i, x, y - 1);
+        }
+
+        // entrances within a cluster
+        for (IntArray nodes : clusterNodes) {
+            for (int i = 0; i < nodes.size; ++i) {
+                int from = nodes.get(i);
+                searchCluster(ws, nodeTiles.get(from), false);
+                for (int j = 0; j < nodes.size; ++j) {
+                    int to = nodes.get(j);
+                    int toTile = nodeTiles.get(to);
+                    if (to != from && ws.isVisited(toTile)) {
+                        addEdge(from, to, ws.getCost(toTile));
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isPassable(int x, int y) {
+        return tileCost[y * width + x] != MovementCost.IMPASSABLE;
+    }
+
+    private int getCluster(int tile) {
+        return (tile / width / clusterSize) * clustersX + (tile % width) / clusterSize;
+    }
+
+    private int getNode(int tile) {
+        int node = tileNodes.get(tile, -1);
+        if (node < 0) {
+            node = nodeTiles.size;
+            nodeTiles.add(tile);
+            tileNodes.put(tile, node);
+            clusterNodes[getCluster(tile)].add(node);
+        }
+        return node;
+    }
+
+    /**
+     * Add entrances along a border, where tiles (ax, ay) + k * (dx, dy) face (bx, by) + k * (dx, dy).
+     */
+    private void addEntrances(int ax, int ay, int bx, int by, int dx, int dy, int length) {
+        int runStart = -1;
+        for (int k = 0; k <= length; ++k) {
+            boolean open = k < length && isPassable(ax + k * dx, ay + k * dy) && isPassable(bx + k * dx, by + k * dy);
+            if (open && runStart < 0) {
+                runStart = k;
+            } else if (!open && runStart >= 0) {
+                int runEnd = k - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    addEntrance(ax, ay, bx, by, dx, dy, runStart);
+                    addEntrance(ax, ay, bx, by, dx, dy, runEnd);
+                } else {
+                    addEntrance(ax, ay, bx, by, dx, dy, (runStart + runEnd) / 2);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void addEntrance(int ax, int ay, int bx, int by, int dx, int dy, int k) {
+        getNode((ay + k * dy) * width + ax + k * dx);
+        getNode((by + k * dy) * width + bx + k * dx);
+    }
+
+    private void connectNeighbour(int node, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return;
+        int tile = y * width + x;
+        int other = tileNodes.get(tile, -1);
+        if (other >= 0 && getCluster(tile) != getCluster(nodeTiles.get(node))) {
+            addEdge(node, other, tileCost[tile]);
+        }
+    }
+
+    private void addEdge(int from, int to, float cost) {
+        edgeTargets[from].add(to);
+        edgeCosts[from].add(cost);
+    }
+
+    /**
+     * Dijkstra within the cluster of the given tile. Forwards, the cost of each visited tile is the cost to reach it from
+     * the given tile; in reverse, the cost to reach the given tile from it.
+     */
+    private void searchCluster(SearchWorkspace ws, int tile, boolean reverse) {
+        int cx = (tile % width) / clusterSize, cy = (tile / width) / clusterSize;
+        int x0 = cx * clusterSize, y0 = cy * clusterSize;
+        int x1 = Math.min(width, x0 + clusterSize) - 1, y1 = Math.min(height, y0 + clusterSize) - 1;
+
+        ws.begin();
+        ws.open(tile, 0, -1, 0);
+        while (!ws.isEmpty()) {
+            int n = ws.poll();
+            int x = n % width, y = n / width;
+            float cost = ws.getCost(n);
+            // moving from a into b costs the cost of b, whichever direction the search goes
+            float leaveCost = reverse ? tileCost[n] : 0;
+            if (x > x0) relaxCluster(ws, n, cost, leaveCost, n - 1, reverse);
+            if (y > y0) relaxCluster(ws, n, cost, leaveCost, n - width, reverse);
+            if (x < x1) relaxCluster(ws, n, cost, leaveCost, n + 1, reverse);
+            if (y < y1) relaxCluster(ws, n, cost, leaveCost, n + width, reverse);
+        }
+    }
+
+    private void relaxCluster(SearchWorkspace ws, int from, float fromCost, float leaveCost, int to, boolean reverse) {
+        if (tileCost[to] == MovementCost.IMPASSABLE) return;
+        float cost = fromCost + (reverse ? leaveCost : tileCost[to]);
+        if (!ws.isVisited(to) || cost < ws.getCost(to)) {
+            ws.open(to, cost, from, cost);
+        }
+    }
+
+    /**
+     * Plan a route between two tiles over the entrances, and get the point where the route has crossed the given number
+     * of cluster borders.
+     * @return The waypoint, the goal itself if the route crosses fewer borders, or null if there is no route
+     */
+    Point findWaypoint(SearchWorkspace ws, Point from, Point to, int clusters) {
+        int start = from.y * width + from.x;
+        int goal = to.y * width + to.x;
+        if (tileCost[goal] == MovementCost.IMPASSABLE) return null;
+
+        int nodeCount = nodeTiles.size;
+        int startNode = nodeCount, goalNode = nodeCount + 1;
+        if (goalNode >= ws.size) return null;
+
+        // connect the ends to the entrances of their clusters
+        IntArray startTargets = new IntArray();
+        FloatArray startCosts = new FloatArray();
+        searchCluster(ws, start, false);
+        IntArray nodes = clusterNodes[getCluster(start)];
+        for (int i = 0; i < nodes.size; ++i) {
+            int tile = nodeTiles.get(nodes.get(i));
+            if (ws.isVisited(tile)) {
+                startTargets.add(nodes.get(i));
+                startCosts.add(ws.getCost(tile));
+            }
+        }
+
+        float[] goalCosts = new float[nodeCount];
+        Arrays.fill(goalCosts, -1);
+        searchCluster(ws, goal, true);
+        nodes = clusterNodes[getCluster(goal)];
+        for (int i = 0; i < nodes.size; ++i) {
+            int tile = nodeTiles.get(nodes.get(i));
+            if (ws.isVisited(tile)) {
+                goalCosts[nodes.get(i)] = ws.getCost(tile);
+            }
+        }
+
+        // A* over the entrances
+        ws.begin();
+        ws.open(startNode, 0, -1, estimate(start, goal));
+        while (!ws.isEmpty()) {
+            int n = ws.poll();
+            if (n == goalNode) {
+                return getWaypoint(ws, goalNode, startNode, clusters, to);
+            }
+            float cost = ws.getCost(n);
+            if (n == startNode) {
+                for (int i = 0; i < startTargets.size; ++i) {
+                    relaxNode(ws, n, cost + startCosts.get(i), startTargets.get(i), goal);
+                }
+            } else {
+                IntArray targets = edgeTargets[n];
+                FloatArray costs = edgeCosts[n];
+                for (int i = 0; i < targets.size; ++i) {
+                    relaxNode(ws, n, cost + costs.get(i), targets.get(i), goal);
+                }
+                if (goalCosts[n] >= 0) {
+                    float total = cost + goalCosts[n];
+                    if (!ws.isVisited(goalNode) || total < ws.getCost(goalNode)) {
+                        ws.open(goalNode, total, n, total);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private float estimate(int tile, int goal) {
+        return (Math.abs(tile % width - goal % width) + Math.abs(tile / width - goal / width)) * minTileCost;
+    }
+
+    private void relaxNode(SearchWorkspace ws, int from, float cost, int to, int goal) {
+        if (!ws.isVisited(to) || cost < ws.getCost(to)) {
+            ws.open(to, cost, from, cost + estimate(nodeTiles.get(to), goal));
+        }
+    }
+
+    private Point getWaypoint(SearchWorkspace ws, int goalNode, int startNode, int clusters, Point to) {
+        IntArray route = new IntArray();
+        for (int n = ws.getParent(goalNode); n != startNode; n = ws.getParent(n)) {
+            route.add(n);
+        }
+        route.reverse();
+
+        int crossed = 0;
+        for (int i = 1; i < route.size; ++i) {
+            int tile = nodeTiles.get(route.get(i));
+            if (getCluster(tile) != getCluster(nodeTiles.get(route.get(i - 1)))) {
+                crossed++;
+                if (crossed >= clusters) {
+                    return new Point(tile % width, tile / width);
+                }
+            }
+        }
+        return to;
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.zhsan.gameobject.pathfinding;
+
+/**
+ * Cost of reaching a common target from every tile of the map, and the tile to move into next on the cheapest route,
+ * found with one Dijkstra search outwards from the target. Any number of troops heading for the target can then read
+ * their route a step at a time without searching again.
+ */
+final class FlowField {
+
+    private final int width;
+    private final float[] cost;
+    private final int[] next;
+
+    /**
+     * @param tileCost Cost of entering each tile, indexed by {@code y * width + x}, {@link MovementCost#IMPASSABLE} for
+     *                 tiles which cannot be entered
+     * @param targets Tiles of the target, which cost nothing to reach
+     * @param ws Workspace to search in
+     */
+    FlowField(int width, int height, float[] tileCost, int[] targets, SearchWorkspace ws) {
+        this.width = width;
+        this.cost = new float[width * height];
+        this.next = new int[width * height];
+
+        ws.begin();
+        for (int t : targets) {
+            ws.open(t, 0, -1, 0);
+        }
+        while (!ws.isEmpty()) {
+            int n = ws.poll();
+            int x = n % width, y = n / width;
+            // going backwards, stepping from a neighbour into n costs the cost of n; only target tiles can be impassable
+            // here, and troops stop next to them anyway
+            float c = ws.getCost(n) + (tileCost[n] == MovementCost.IMPASSABLE ? 0 : tileCost[n]);
+            if (x > 0) relax(ws, tileCost, n, c, n - 1);
+            if (y > 0) relax(ws, tileCost, n, c, n - width);
+            if (x < width - 1) relax(ws, tileCost, n, c, n + 1);
+            if (y < height - 1) relax(ws, tileCost, n, c, n + width);
+        }
+
+        for (int i = 0; i < next.length; ++i) {
+            if (ws.isVisited(i)) {
+                cost[i] = ws.getCost(i);
+                next[i] = ws.getParent(i);
+            } else {
+                cost[i] = MovementCost.IMPASSABLE;
+                next[i] = -1;
+            }
+        }
+    }
+
+    private static void relax(SearchWorkspace ws, float[] tileCost, int from, float c, int to) {
+        if (tileCost[to] == MovementCost.IMPASSABLE) return;
+        if (!ws.isVisited(to) || c < ws.getCost(to)) {
+            ws.open(to, c, from, c);
+        }
+    }
+
+    /**
+     * @return Whether the target can be reached from the tile
+     */
+    boolean isReachable(int x, int y) {
+        return cost[y * width + x] != MovementCost.IMPASSABLE;
+    }
+
+    /**
+     * @return The tile to move into next, as an index, or -1 if the tile is part of the target or cannot reach it
+     */
+    int getNext(int x, int y) {
+        return next[y * width + x];
+    }
+
+}
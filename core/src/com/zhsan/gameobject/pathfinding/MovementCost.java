@@ -0,0 +1,15 @@
+package com.zhsan.gameobject.pathfinding;
+
+/**
+ * Cost of moving into a tile, for the troop or kind of movement a path query is made for.
+ */
+interface MovementCost {
+
+    /**
+     * Cost of tiles which can never be entered. Moves into them are not considered at all.
+     */
+    float IMPASSABLE = Float.MAX_VALUE;
+
+    float getCost(int x, int y);
+
+}
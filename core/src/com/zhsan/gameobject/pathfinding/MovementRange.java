@@ -0,0 +1,70 @@
+package com.zhsan.gameobject.pathfinding;
+
+import com.zhsan.common.Point;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tiles a troop can reach from a position within some movement cost, with the cost of reaching each. Only the bounding
+ * box of the reached tiles is stored, as a bitmap of reachable tiles and an array of costs. Ranges are shared between
+ * callers and never change once found.
+ */
+public final class MovementRange {
+
+    private final int left, top, width, height;
+    private final BitSet reachable;
+    private final float[] costs;
+
+    private List<Point> points;
+
+    MovementRange(int left, int top, int width, int height) {
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+        this.reachable = new BitSet(width * height);
+        this.costs = new float[width * height];
+    }
+
+    void set(int x, int y, float cost) {
+        int i = (y - top) * width + (x - left);
+        reachable.set(i);
+        costs[i] = cost;
+    }
+
+    private int indexOf(Point p) {
+        if (p.x < left || p.y < top || p.x >= left + width || p.y >= top + height) return -1;
+        return (p.y - top) * width + (p.x - left);
+    }
+
+    public boolean isReachable(Point p) {
+        int i = indexOf(p);
+        return i >= 0 && reachable.get(i);
+    }
+
+    /**
+     * @return Cost of reaching the tile, or {@link Float#MAX_VALUE} if it is out of range
+     */
+    public float getCost(Point p) {
+        int i = indexOf(p);
+        return i >= 0 && reachable.get(i) ? costs[i] : Float.MAX_VALUE;
+    }
+
+    /**
+     * @return All reachable tiles, including the starting one. The list cannot be modified.
+     */
+    public synchronized List<Point> getPoints() {
+        if (points == null) {
+            List<Point> result = new ArrayList<>(reachable.cardinality());
+            for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                result.add(new Point(left + i % width, top + i / width));
+            }
+            points = Collections.unmodifiableList(result);
+        }
+        return points;
+    }
+
+}
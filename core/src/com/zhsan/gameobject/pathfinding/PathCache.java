@@ -0,0 +1,116 @@
+package com.zhsan.gameobject.pathfinding;
+
+import com.zhsan.common.Point;
+import com.zhsan.gameobject.Faction;
+import com.zhsan.gameobject.MilitaryKind;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Paths found recently, least recently used ones dropped first. A path is only reused while the occupancy epoch of the
+ * scenario it is found in stays the same, so entries from before troops moved or architectures changed hands are never
+ * returned and simply age out.
+ */
+final class PathCache {
+
+    static final class Key {
+        private final Point from, to;
+        // null for paths over terrain passable by any military kind
+        private final MilitaryKind kind;
+        private final Faction faction;
+        private final int epoch;
+
+        Key(Point from, Point to, MilitaryKind kind, Faction faction, int epoch) {
+            this.from = from;
+            this.to = to;
+            this.kind = kind;
+            this.faction = faction;
+            this.epoch = epoch;
+        }
+
+        Key reverse() {
+            return new Key(to, from, kind, faction, epoch);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return epoch == that.epoch && from.equals(that.from) && to.equals(that.to) &&
+                    kind == that.kind && faction == that.faction;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(from, to, kind, faction, epoch);
+        }
+    }
+
+    // marks a query known to have no path, as null means nothing is cached
+    private static final List<Point> NO_PATH = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Map<Key, List<Point>> paths;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    PathCache(int size) {
+        this.paths = new LinkedHashMap<Key, List<Point>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<Point>> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Get the cached path, finding and caching it if there is none. If moving between two tiles costs the same either
+     * way, a path cached the other way round is reused reversed.
+     * @return The path, which cannot be modified, or null if there is none
+     */
+    List<Point> get(Key key, boolean symmetric, Function<Key, List<Point>> find) {
+        List<Point> result;
+        synchronized (paths) {
+            result = paths.get(key);
+            if (result == null && symmetric) {
+                List<Point> reversed = paths.get(key.reverse());
+                if (reversed != null) {
+                    result = reversed == NO_PATH ? NO_PATH : reverse(reversed);
+                    paths.put(key, result);
+                }
+            }
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            return result == NO_PATH ? null : result;
+        }
+
+        misses.incrementAndGet();
+        // searched outside of the lock, so that other threads are not held up; two threads asking the same thing at
+        // once just both search
+        List<Point> found = find.apply(key);
+        result = found == null ? NO_PATH : Collections.unmodifiableList(found);
+        synchronized (paths) {
+            paths.put(key, result);
+        }
+        return found == null ? null : result;
+    }
+
+    private static List<Point> reverse(List<Point> path) {
+        List<Point> result = new ArrayList<>(path);
+        Collections.reverse(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+}
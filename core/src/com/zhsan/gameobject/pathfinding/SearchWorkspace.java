@@ -0,0 +1,139 @@
+package com.zhsan.gameobject.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Per-search state over the tiles of a map, indexed by {@code y * width + x}: the best known cost of each tile, the tile
+ * it is reached from, and an indexed binary heap of open tiles supporting decrease-key.
+ *
+ * Arrays are allocated once and reused by later searches. A search stamp marks which entries belong to the current
+ * search, so starting a new search does not clear the arrays. A workspace must only be used by one search at a time.
+ */
+final class SearchWorkspace {
+
+    final int size;
+
+    private final float[] cost;
+    private final int[] parent;
+    private final int[] stamps;
+    private int stamp;
+
+    private final int[] heap;
+    private final int[] heapIndex;
+    private final float[] priority;
+    private int heapSize;
+
+    SearchWorkspace(int size) {
+        this.size = size;
+        this.cost = new float[size];
+        this.parent = new int[size];
+        this.stamps = new int[size];
+        this.heap = new int[size];
+        this.heapIndex = new int[size];
+        this.priority = new float[size];
+    }
+
+    /**
+     * Start a new search, forgetting everything about the previous one.
+     */
+    void begin() {
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        heapSize = 0;
+    }
+
+    boolean isVisited(int node) {
+        return stamps[node] == stamp;
+    }
+
+    /**
+     * @return Cost of the best route found to the node, only valid if it is visited
+     */
+    float getCost(int node) {
+        return cost[node];
+    }
+
+    /**
+     * @return The node preceding the given one on the best route found, or -1 for the start node
+     */
+    int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Record a route to the node and open it with the given priority, or move it up the heap if it is already open.
+     */
+    void open(int node, float nodeCost, int from, float nodePriority) {
+        boolean inHeap = stamps[node] == stamp && heapIndex[node] >= 0;
+        stamps[node] = stamp;
+        cost[node] = nodeCost;
+        parent[node] = from;
+        priority[node] = nodePriority;
+
+        if (inHeap) {
+            siftUp(heapIndex[node]);
+        } else {
+            heap[heapSize] = node;
+            heapIndex[node] = heapSize;
+            siftUp(heapSize++);
+        }
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * Remove and return the open node with the lowest priority.
+     */
+    int poll() {
+        int top = heap[0];
+        heapIndex[top] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        float p = priority[node];
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            int upNode = heap[up];
+            if (priority[upNode] <= p) break;
+            heap[i] = upNode;
+            heapIndex[upNode] = i;
+            i = up;
+        }
+        heap[i] = node;
+        heapIndex[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        float p = priority[node];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && priority[heap[right]] < priority[heap[child]]) {
+                child = right;
+            }
+            int childNode = heap[child];
+            if (p <= priority[childNode]) break;
+            heap[i] = childNode;
+            heapIndex[childNode] = i;
+            i = child;
+        }
+        heap[i] = node;
+        heapIndex[node] = i;
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.zhsan.gameobject.pathfinding;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntIntMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Cost of the cheapest path between every two architectures for one military kind, considering terrain only. Costs are
+ * found with one Dijkstra search from each architecture, run in parallel.
+ */
+final class TravelMatrix {
+
+    private final int count;
+    private final float[] costs;
+
+    private TravelMatrix(int count, float[] costs) {
+        this.count = count;
+        this.costs = costs;
+    }
+
+    /**
+     * @param tileCost Cost of entering each tile, indexed by {@code y * width + x}, {@link MovementCost#IMPASSABLE} for
+     *                 tiles which cannot be entered
+     * @param positions Tile of each architecture, as an index
+     * @param acquire Gives each search a workspace of its own
+     * @param release Takes the workspace back once the search is done
+     */
+    static TravelMatrix compute(int width, int height, float[] tileCost, int[] positions,
+                                Supplier<SearchWorkspace> acquire, Consumer<SearchWorkspace> release) {
+        int count = positions.length;
+        float[] costs = new float[count * count];
+
+        // number of architectures on each tile which can be reached at all
+        IntIntMap targets = new IntIntMap();
+        int targetCount = 0;
+        for (int p : positions) {
+            if (tileCost[p] != MovementCost.IMPASSABLE) {
+                targets.getAndIncrement(p, 0, 1);
+                targetCount++;
+            }
+        }
+        int total = targetCount;
+
+        IntStream.range(0, count).parallel().forEach(i -> {
+            SearchWorkspace ws = acquire.get();
+            try {
+                search(ws, width, height, tileCost, positions, targets, total, i, costs);
+            } finally {
+                release.accept(ws);
+            }
+        });
+        return new TravelMatrix(count, costs);
+    }
+
+    private static void search(SearchWorkspace ws, int width, int height, float[] tileCost, int[] positions,
+                               IntIntMap targets, int targetCount, int from, float[] costs) {
+        int count = positions.length;
+
+        // the search stops once the tiles of all architectures are settled
+        int left = targetCount;
+        ws.begin();
+        ws.open(positions[from], 0, -1, 0);
+        while (!ws.isEmpty() && left > 0) {
+            int n = ws.poll();
+            left -= targets.get(n, 0);
+            int x = n % width, y = n / width;
+            float cost = ws.getCost(n);
+            if (x > 0) relax(ws, tileCost, n, cost, n - 1);
+            if (y > 0) relax(ws, tileCost, n, cost, n - width);
+            if (x < width - 1) relax(ws, tileCost, n, cost, n + 1);
+            if (y < height - 1) relax(ws, tileCost, n, cost, n + width);
+        }
+
+        for (int j = 0; j < count; ++j) {
+            costs[from * count + j] = ws.isVisited(positions[j]) ? ws.getCost(positions[j]) : MovementCost.IMPASSABLE;
+        }
+    }
+
+    private static void relax(SearchWorkspace ws, float[] tileCost, int from, float fromCost, int to) {
+        if (tileCost[to] == MovementCost.IMPASSABLE) return;
+        float cost = fromCost + tileCost[to];
+        if (!ws.isVisited(to) || cost < ws.getCost(to)) {
+            ws.open(to, cost, from, cost);
+        }
+    }
+
+    /**
+     * @return Cost of travelling from one architecture to another, by their index, or {@link MovementCost#IMPASSABLE}
+     * if there is no path
+     */
+    float get(int from, int to) {
+        return costs[from * count + to];
+    }
+
+    /**
+     * @return SHA-1 digest of the tile costs, to tell whether a stored matrix is for the same terrain
+     */
+    static byte[] digest(float[] tileCost) {
+        ByteBuffer bytes = ByteBuffer.allocate(tileCost.length * 4);
+        for (float c : tileCost) {
+            bytes.putFloat(c);
+        }
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes.array());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Store the matrix, headed by what it is computed from.
+     * @param terrainDigest {@link #digest(float[])} of the tile costs
+     * @param positions Tile of each architecture, as an index
+     */
+    void write(FileHandle f, byte[] terrainDigest, int[] positions) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(f.write(false, 65536))) {
+            out.writeInt(terrainDigest.length);
+            out.write(terrainDigest);
+            out.writeInt(positions.length);
+            for (int p : positions) {
+                out.writeInt(p);
+            }
+            for (float c : costs) {
+                out.writeFloat(c);
+            }
+        }
+    }
+
+    /**
+     * @return The matrix stored in the file, or null if it is computed from other tile costs or architecture positions
+     */
+    static TravelMatrix read(FileHandle f, byte[] terrainDigest, int[] positions) throws IOException {
+        try (DataInputStream in = new DataInputStream(f.read(65536))) {
+            if (in.readInt() != terrainDigest.length) {
+                return null;
+            }
+            byte[] storedDigest = new byte[terrainDigest.length];
+            in.readFully(storedDigest);
+            if (!Arrays.equals(storedDigest, terrainDigest)) {
+                return null;
+            }
+
+            int count = positions.length;
+            if (in.readInt() != count) {
+                return null;
+            }
+            for (int p : positions) {
+                if (in.readInt() != p) {
+                    return null;
+                }
+            }
+
+            float[] costs = new float[count * count];
+            for (int i = 0; i < costs.length; ++i) {
+                costs[i] = in.readFloat();
+            }
+            return new TravelMatrix(count, costs);
+        }
+    }
+
+}
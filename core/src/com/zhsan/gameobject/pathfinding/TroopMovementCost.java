@@ -0,0 +1,54 @@
+package com.zhsan.gameobject.pathfinding;
+
+import com.badlogic.gdx.utils.IntSet;
+import com.zhsan.common.Point;
+import com.zhsan.gameobject.*;
+
+/**
+ * Cost of moving a troop, as of the time the query is made. Tiles the troop cannot move into right now, see
+ * {@link Troop#canMoveInto(Point)}, are given a very large cost instead of being impassable, so that a route is still
+ * found towards targets currently blocked.
+ *
+ * Troops and architectures are looked at once when the cost is made, so a query does not read the scenario while it
+ * searches.
+ */
+final class TroopMovementCost implements MovementCost {
+
+    static final float VERY_LARGE_COST = 9e9f;
+
+    private final int width;
+
+    // cost of entering each tile for the kind of the troop, shared by all queries
+    private final float[] tileCosts;
+
+    // tiles occupied by troops or hostile architectures
+    private final IntSet blocked = new IntSet();
+
+    TroopMovementCost(GameScenario scen, GameMap map, float[] tileCosts, Troop troop) {
+        this.width = map.getWidth();
+        this.tileCosts = tileCosts;
+
+        Faction faction = troop.getBelongedFaction();
+        for (Troop t : scen.getTroops()) {
+            blocked.add(t.getPosition().y * width + t.getPosition().x);
+        }
+        for (Architecture a : scen.getArchitectures()) {
+            if (a.getBelongedFaction() != faction && a.getEndurance() > 0) {
+                for (Point p : a.getLocations()) {
+                    blocked.add(p.y * width + p.x);
+                }
+            }
+        }
+    }
+
+    @Override
+    public float getCost(int x, int y) {
+        int i = y * width + x;
+        if (blocked.contains(i)) {
+            return VERY_LARGE_COST;
+        }
+        float adaptability = tileCosts[i];
+        return adaptability == Float.MAX_VALUE ? VERY_LARGE_COST : adaptability;
+    }
+
+}
@@ -1,234 +1,446 @@
 package com.zhsan.gameobject.pathfinding;
 
-import com.badlogic.gdx.ai.pfa.Connection;
-import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
-import com.badlogic.gdx.ai.pfa.GraphPath;
-import com.badlogic.gdx.ai.pfa.Heuristic;
-import com.badlogic.gdx.ai.pfa.indexed.DefaultIndexedGraph;
-import com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder;
-import com.badlogic.gdx.ai.pfa.indexed.IndexedNode;
-import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.zhsan.common.GlobalVariables;
+import com.zhsan.common.Pair;
+import com.zhsan.common.Paths;
 import com.zhsan.common.Point;
 import com.zhsan.gameobject.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * Path and range queries over the tiles of a map, shared by all troops of a scenario.
+ *
+ * The map is searched as a grid with four neighbours per tile, the cost of each move coming from a {@link MovementCost}
+ * made for the query. Search state lives in {@link SearchWorkspace}s, which are pooled and reused by later queries.
+ *
+ * Queries may be made from any number of threads at once, such as the AI of several factions. Each search has a
+ * workspace of its own, and reads terrain costs from arrays built once and never changed afterwards; troops and
+ * architectures are looked at once when a query starts.
+ *
  * Created by Peter on 9/8/2015.
  */
 public class ZhPathFinder {
 
-    // allow routing into virtual unreachable positions.
-    private static final float VERY_LARGE_COST = 9e9f;
+    // a few workspaces are kept around for the threads searching at the same time
+    private static final int MAX_POOLED_WORKSPACES = Runtime.getRuntime().availableProcessors() + 1;
 
-    private class Conn implements Connection<Node> {
+    // routes crossing fewer clusters than this are searched tile by tile all the way
+    private static final int LONG_ROUTE_CLUSTERS = 3;
 
-        private final Node from, to;
-        private final Troop troop;
+    // number of cluster borders a long route is searched tile by tile at a time
+    private static final int REFINED_CLUSTERS = 2;
 
-        public Conn(Node from, Node to, Troop kind) {
+    private final GameMap map;
+    private final GameScenario scen;
+
+    private final Queue<SearchWorkspace> workspaces = new ConcurrentLinkedQueue<>();
+    private final AnyMilitaryKindCost anyMilitaryKindCost;
+    private final PathCache pathCache = new PathCache(GlobalVariables.pathCacheSize);
+    private final Map<MilitaryKind, float[]> tileCosts = new ConcurrentHashMap<>();
+    private final Map<MilitaryKind, ClusterGraph> clusterGraphs = new ConcurrentHashMap<>();
+
+    // architectures by id, in the order of the travel matrices
+    private final IntIntMap architectureIndices = new IntIntMap();
+    private final int[] architecturePositions;
+    private final Map<MilitaryKind, TravelMatrix> travelMatrices = new ConcurrentHashMap<>();
+
+    // results only valid for the day they are found in
+    private final Map<Pair<Architecture, MilitaryKind>, FlowField> flowFields = new ConcurrentHashMap<>();
+    private final Map<RangeKey, MovementRange> ranges = new ConcurrentHashMap<>();
+    private volatile int cachedDay = -1;
+    private volatile int rangesEpoch;
+
+    private static final class RangeKey {
+        private final Point from;
+        private final MilitaryKind kind;
+        private final Faction faction;
+        private final int maxCost;
+        private final int occupancyEpoch;
+
+        private RangeKey(Point from, MilitaryKind kind, Faction faction, int maxCost, int occupancyEpoch) {
             this.from = from;
-            this.to = to;
-            this.troop = kind;
+            this.kind = kind;
+            this.faction = faction;
+            this.maxCost = maxCost;
+            this.occupancyEpoch = occupancyEpoch;
         }
 
         @Override
-        public float getCost() {
-            Point toPoint = new Point(to.x, to.y);
-            if (troop == null) {
-                return map.getTerrainAt(toPoint).isPassableByAnyMilitaryKind(scen) ? 1 : Float.MAX_VALUE;
-            }
-            if (!troop.canMoveInto(toPoint)) {
-                return VERY_LARGE_COST;
-            }
-            return scen.getMilitaryTerrain(troop.getKind(), map.getTerrainAt(toPoint)).getAdaptability();
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RangeKey)) return false;
+            RangeKey that = (RangeKey) o;
+            return maxCost == that.maxCost && occupancyEpoch == that.occupancyEpoch && from.equals(that.from) &&
+                    kind == that.kind && faction == that.faction;
         }
 
         @Override
-        public Node getFromNode() {
-            return from;
+        public int hashCode() {
+            return Objects.hash(from, kind, faction, maxCost, occupancyEpoch);
         }
+    }
 
-        @Override
-        public Node getToNode() {
-            return to;
+    public ZhPathFinder(GameScenario scen, GameMap map) {
+        this.scen = scen;
+        this.map = map;
+        this.anyMilitaryKindCost = new AnyMilitaryKindCost(scen, map);
+
+        List<Architecture> architectures = new ArrayList<>(scen.getArchitectures().getAll());
+        architectures.sort(Comparator.comparingInt(Architecture::getId));
+        this.architecturePositions = new int[architectures.size()];
+        for (int i = 0; i < architectures.size(); ++i) {
+            Point p = architectures.get(i).getPosition();
+            architectureIndices.put(architectures.get(i).getId(), i);
+            architecturePositions[i] = pointToIndex(p.x, p.y);
         }
+    }
 
-        @Override
-        public String toString() {
-            return "Conn{" +
-                    "from=" + from +
-                    ", to=" + to +
-                    ", troop=" + troop +
-                    '}';
+    private void checkDay() {
+        int day = scen.getGameData().getDayPassed();
+        if (day != cachedDay) {
+            synchronized (this) {
+                if (day != cachedDay) {
+                    flowFields.clear();
+                    ranges.clear();
+                    cachedDay = day;
+                }
+            }
         }
     }
 
-    private class Node implements IndexedNode<Node> {
-
-        private final int x, y;
-        private final Troop kind;
-
-        private float cost;
+    private int pointToIndex(int x, int y) {
+        return y * map.getWidth() + x;
+    }
 
-        public Node(int x, int y, Troop kind) {
-            this.x = x;
-            this.y = y;
-            this.kind = kind;
+    private SearchWorkspace acquireWorkspace() {
+        SearchWorkspace ws = workspaces.poll();
+        if (ws == null) {
+            ws = new SearchWorkspace(map.getWidth() * map.getHeight());
         }
+        ws.begin();
+        return ws;
+    }
 
-        public float getCost() {
-            return cost;
+    private void releaseWorkspace(SearchWorkspace ws) {
+        if (workspaces.size() < MAX_POOLED_WORKSPACES) {
+            workspaces.add(ws);
         }
+    }
 
-        public Node setCost(float cost) {
-            this.cost = cost;
-            return this;
+    /**
+     * Find a path moving into tiles passable by any military kind, ignoring troops and architectures.
+     * @return The tiles of the path, including both ends, or null if there is none. The list cannot be modified.
+     */
+    public List<Point> findPath(Point from, Point to) {
+        // every tile costs the same, so a path the other way round is as good
+        return pathCache.get(new PathCache.Key(from, to, null, null, 0), true,
+                k -> findPath(anyMilitaryKindCost, from, to));
+    }
+
+    /**
+     * Find a path for the troop. Tiles it cannot move into right now cost a lot but do not stop the search.
+     * @return The tiles of the path, including both ends, or null if there is none. The list cannot be modified.
+     */
+    public List<Point> findPath(Troop troop, Point from, Point to) {
+        PathCache.Key key = new PathCache.Key(from, to, troop.getKind(), troop.getBelongedFaction(), scen.getOccupancyEpoch());
+        return pathCache.get(key, false,
+                k -> findPath(new TroopMovementCost(scen, map, getTileCosts(troop.getKind()), troop), from, to));
+    }
+
+    /**
+     * @return Number of path queries answered from the cache so far
+     */
+    public long getPathCacheHits() {
+        return pathCache.getHits();
+    }
+
+    /**
+     * @return Number of path queries which had to be searched so far
+     */
+    public long getPathCacheMisses() {
+        return pathCache.getMisses();
+    }
+
+    /**
+     * Find the beginning of a path for the troop. Long routes are planned over clusters of the map first, and only the
+     * part through the first few clusters is searched tile by tile, so the path may end before reaching the target; the
+     * rest is found once the troop gets there.
+     * @return The tiles of the path, including the starting tile, or null if there is none
+     */
+    public List<Point> findRoute(Troop troop, Point from, Point to) {
+        int clusterSize = map.getTileInEachImage();
+        if (from.taxiDistanceTo(to) < clusterSize * LONG_ROUTE_CLUSTERS) {
+            return findPath(troop, from, to);
         }
 
-        @Override
-        public int getIndex() {
-            return pointToIndex(x, y);
+        ClusterGraph graph = getClusterGraph(troop.getKind());
+        Point waypoint;
+        SearchWorkspace ws = acquireWorkspace();
+        try {
+            waypoint = graph.findWaypoint(ws, from, to, REFINED_CLUSTERS);
+        } finally {
+            releaseWorkspace(ws);
         }
+        return findPath(troop, from, waypoint == null ? to : waypoint);
+    }
 
-        @Override
-        public Array<Connection<Node>> getConnections() {
-            Array<Connection<Node>> result = new Array<>(4);
-            if (x > 0) {
-                Conn conn = new Conn(nodes.get(pointToIndex(x, y)), nodes.get(pointToIndex(x - 1, y)), kind);
-                if (conn.getCost() != Float.MAX_VALUE) {
-                    result.add(conn);
-                }
-            }
-            if (y > 0) {
-                Conn conn = new Conn(nodes.get(pointToIndex(x, y)), nodes.get(pointToIndex(x, y - 1)), kind);
-                if (conn.getCost() != Float.MAX_VALUE) {
-                    result.add(conn);
-                }
-            }
-            if (x < map.getWidth() - 1) {
-                Conn conn = new Conn(nodes.get(pointToIndex(x, y)), nodes.get(pointToIndex(x + 1, y)), kind);
-                if (conn.getCost() != Float.MAX_VALUE) {
-                    result.add(conn);
-                }
-            }
-            if (y < map.getHeight() - 1) {
-                Conn conn = new Conn(nodes.get(pointToIndex(x, y)), nodes.get(pointToIndex(x, y + 1)), kind);
-                if (conn.getCost() != Float.MAX_VALUE) {
-                    result.add(conn);
+    /**
+     * @return Cost of entering each tile for the kind, considering terrain only
+     */
+    private float[] getTileCosts(MilitaryKind kind) {
+        return tileCosts.computeIfAbsent(kind, k -> {
+            float[] result = new float[map.getWidth() * map.getHeight()];
+            for (int y = 0; y < map.getHeight(); ++y) {
+                for (int x = 0; x < map.getWidth(); ++x) {
+                    result[pointToIndex(x, y)] = scen.getMilitaryTerrain(k, map.getTerrainAt(x, y)).getAdaptability();
                 }
             }
             return result;
-        }
+        });
+    }
 
-        @Override
-        public String toString() {
-            return "Node{" +
-                    "x=" + x +
-                    ", y=" + y +
-                    ", troop=" + kind +
-                    ", cost=" + cost +
-                    '}';
-        }
+    private ClusterGraph getClusterGraph(MilitaryKind kind) {
+        return clusterGraphs.computeIfAbsent(kind, k -> {
+            SearchWorkspace ws = acquireWorkspace();
+            try {
+                return new ClusterGraph(map.getWidth(), map.getHeight(), map.getTileInEachImage(), getTileCosts(k), ws);
+            } finally {
+                releaseWorkspace(ws);
+            }
+        });
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+    /**
+     * Find a path for the troop towards any tile of the architecture. The path is read from a flow field computed once a
+     * day for each architecture and military kind, and shared by all troops heading there. Only terrain is considered, so
+     * troops and other architectures on the way are left for the troop to route around.
+     * @return The tiles of the path, from the given tile to a tile of the architecture, or null if there is none
+     */
+    public List<Point> findPathToArchitecture(Troop troop, Point from, Architecture target) {
+        FlowField field = getFlowField(target, troop.getKind());
+        if (!field.isReachable(from.x, from.y)) {
+            return null;
+        }
 
-            Node node = (Node) o;
+        List<Point> result = new ArrayList<>();
+        result.add(from);
+        for (int n = field.getNext(from.x, from.y); n >= 0; n = field.getNext(n % map.getWidth(), n / map.getWidth())) {
+            result.add(new Point(n % map.getWidth(), n / map.getWidth()));
+        }
+        return result;
+    }
 
-            if (x != node.x) return false;
-            return y == node.y;
+    private FlowField getFlowField(Architecture target, MilitaryKind kind) {
+        checkDay();
 
-        }
+        return flowFields.computeIfAbsent(new Pair<>(target, kind), k -> {
+            int[] targets = new int[target.getLocations().size()];
+            for (int i = 0; i < targets.length; ++i) {
+                Point p = target.getLocations().get(i);
+                targets[i] = pointToIndex(p.x, p.y);
+            }
 
-        @Override
-        public int hashCode() {
-            int result = x;
-            result = 31 * result + y;
-            return result;
-        }
+            SearchWorkspace ws = acquireWorkspace();
+            try {
+                return new FlowField(map.getWidth(), map.getHeight(), getTileCosts(kind), targets, ws);
+            } finally {
+                releaseWorkspace(ws);
+            }
+        });
     }
 
-    private class H implements Heuristic<Node> {
+    /**
+     * Cost of the cheapest path between two architectures for the military kind, considering terrain only. The costs
+     * between all architectures are found together the first time a kind is asked for, and kept on disk for the next
+     * time the scenario is loaded.
+     * @return The cost, or {@link Float#MAX_VALUE} if there is no path
+     */
+    public float getTravelCost(MilitaryKind kind, Architecture from, Architecture to) {
+        return getTravelMatrix(kind).get(architectureIndices.get(from.getId(), -1), architectureIndices.get(to.getId(), -1));
+    }
 
-        @Override
-        public float estimate(Node from, Node to) {
-            return Math.abs(from.y - to.y) + Math.abs(from.x - to.x);
+    /**
+     * Find the travel costs for all military kinds, if not yet done.
+     */
+    public void prepareTravelCosts() {
+        for (MilitaryKind kind : scen.getMilitaryKinds()) {
+            getTravelMatrix(kind);
         }
     }
 
-    private GameMap map;
-    private GameScenario scen;
-
-    private Array<Node> nodes = new Array<>();
-    private IndexedAStarPathFinder<Node> pathFinder;
+    private TravelMatrix getTravelMatrix(MilitaryKind kind) {
+        return travelMatrices.computeIfAbsent(kind, k -> {
+            float[] tileCosts = getTileCosts(k);
+            byte[] terrainDigest = TravelMatrix.digest(tileCosts);
+            // the file only narrows down the candidates, the header tells whether the matrix matches
+            String signature = Integer.toHexString(map.getWidth()) + "-" +
+                    Integer.toHexString(Arrays.hashCode(terrainDigest)) + "-" + Integer.toHexString(Arrays.hashCode(architecturePositions));
+            FileHandle f = Gdx.files.external(Paths.CACHE + "TravelCosts" + File.separator + signature + ".bin");
+
+            if (f.exists()) {
+                try {
+                    TravelMatrix result = TravelMatrix.read(f, terrainDigest, architecturePositions);
+                    if (result != null) {
+                        return result;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
 
-    private int pointToIndex(int x, int y) {
-        return y * map.getWidth() + x;
+            TravelMatrix result = TravelMatrix.compute(map.getWidth(), map.getHeight(), tileCosts, architecturePositions,
+                    this::acquireWorkspace, this::releaseWorkspace);
+            try {
+                result.write(f, terrainDigest, architecturePositions);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return result;
+        });
     }
 
-    public ZhPathFinder(GameScenario scen, GameMap map, Troop kind) {
-        this.scen = scen;
-        this.map = map;
+    private List<Point> findPath(MovementCost movementCost, Point from, Point to) {
+        int width = map.getWidth();
+        int height = map.getHeight();
+        int start = pointToIndex(from.x, from.y);
+        int goal = pointToIndex(to.x, to.y);
+
+        SearchWorkspace ws = acquireWorkspace();
+        try {
+            ws.open(start, 0, -1, from.taxiDistanceTo(to));
+            while (!ws.isEmpty()) {
+                int n = ws.poll();
+                if (n == goal) {
+                    return buildPath(ws, goal);
+                }
 
-        for (int y = 0; y < map.getHeight(); ++y) {
-            for (int x = 0; x < map.getWidth(); ++x) {
-                nodes.add(new Node(x, y, kind));
+                int x = n % width;
+                int y = n / width;
+                float cost = ws.getCost(n);
+                if (x > 0) {
+                    relax(ws, movementCost, n, cost, x - 1, y, to);
+                }
+                if (y > 0) {
+                    relax(ws, movementCost, n, cost, x, y - 1, to);
+                }
+                if (x < width - 1) {
+                    relax(ws, movementCost, n, cost, x + 1, y, to);
+                }
+                if (y < height - 1) {
+                    relax(ws, movementCost, n, cost, x, y + 1, to);
+                }
             }
+            return null;
+        } finally {
+            releaseWorkspace(ws);
         }
-        DefaultIndexedGraph<Node> graph = new DefaultIndexedGraph<>(nodes);
-        pathFinder = new IndexedAStarPathFinder<>(graph);
     }
 
-    public List<Point> findPath(Point from, Point to) {
-        GraphPath<Node> out = new DefaultGraphPath<>();
-        boolean found = pathFinder.searchNodePath(nodes.get(pointToIndex(from.x, from.y)), nodes.get(pointToIndex(to.x, to.y)), new H(), out);
-        if (!found) {
-            return null;
+    private void relax(SearchWorkspace ws, MovementCost movementCost, int from, float fromCost, int x, int y, Point to) {
+        float moveCost = movementCost.getCost(x, y);
+        if (moveCost == MovementCost.IMPASSABLE) return;
+
+        int node = pointToIndex(x, y);
+        float cost = fromCost + moveCost;
+        if (!ws.isVisited(node) || cost < ws.getCost(node)) {
+            ws.open(node, cost, from, cost + Math.abs(x - to.x) + Math.abs(y - to.y));
         }
+    }
 
+    private List<Point> buildPath(SearchWorkspace ws, int goal) {
         List<Point> result = new ArrayList<>();
-        for (Node n : out) {
-            result.add(new Point(n.x, n.y));
+        for (int n = goal; n >= 0; n = ws.getParent(n)) {
+            result.add(new Point(n % map.getWidth(), n / map.getWidth()));
         }
+        Collections.reverse(result);
         return result;
     }
 
-    public List<Point> getPointsWithinCost(Point from, int maxCost) {
-        List<Point> result = new ArrayList<>();
+    /**
+     * Find the tiles the troop can reach from the given position spending at most the given cost. Ranges are kept until
+     * a troop moves, appears or is gone, or an architecture changes hands or loses its endurance.
+     */
+    public MovementRange getMovementRange(Troop troop, Point from, int maxCost) {
+        checkDay();
+        int epoch = scen.getOccupancyEpoch();
+        if (epoch != rangesEpoch) {
+            // ranges found before are never asked for again
+            synchronized (this) {
+                if (epoch != rangesEpoch) {
+                    ranges.clear();
+                    rangesEpoch = epoch;
+                }
+            }
+        }
+        RangeKey key = new RangeKey(from, troop.getKind(), troop.getBelongedFaction(), maxCost, epoch);
+        return ranges.computeIfAbsent(key, k -> findMovementRange(troop, from, maxCost));
+    }
 
-        Node start = nodes.get(pointToIndex(from.x, from.y));
-
-        // Uniform cost search getting all nodes within cost
-        PriorityQueue<Node> frontier = new PriorityQueue<>((x, y) -> Float.compare(x.cost, y.cost));
-        frontier.add(start);
-
-        Set<Node> explored = new HashSet<>();
-
-        do {
-            Node n = frontier.poll();
-            explored.add(n);
-            result.add(new Point(n.x, n.y));
-            for (Connection<Node> c : n.getConnections()) {
-                Node target = c.getToNode() == n ? c.getFromNode() : c.getToNode();
-                if (!explored.contains(target)) {
-                    if (!frontier.contains(target)) {
-                        if (n.getCost() + c.getCost() <= maxCost) {
-                            target.setCost(n.getCost() + c.getCost());
-                            frontier.add(target);
-                        }
-                    } else if (target.getCost() > n.getCost() + c.getCost()) {
-                        target.setCost(n.getCost() + c.getCost());
-                    }
+    private MovementRange findMovementRange(Troop troop, Point from, int maxCost) {
+        MovementCost movementCost = new TroopMovementCost(scen, map, getTileCosts(troop.getKind()), troop);
+        int width = map.getWidth();
+        int height = map.getHeight();
+
+        SearchWorkspace ws = acquireWorkspace();
+        try {
+            IntArray reached = new IntArray();
+            int left = from.x, top = from.y, right = from.x, bottom = from.y;
+
+            ws.open(pointToIndex(from.x, from.y), 0, -1, 0);
+            while (!ws.isEmpty()) {
+                int n = ws.poll();
+                int x = n % width;
+                int y = n / width;
+                reached.add(n);
+                left = Math.min(left, x);
+                top = Math.min(top, y);
+                right = Math.max(right, x);
+                bottom = Math.max(bottom, y);
+
+                float cost = ws.getCost(n);
+                if (x > 0) {
+                    relaxWithin(ws, movementCost, n, cost, x - 1, y, maxCost);
+                }
+                if (y > 0) {
+                    relaxWithin(ws, movementCost, n, cost, x, y - 1, maxCost);
+                }
+                if (x < width - 1) {
+                    relaxWithin(ws, movementCost, n, cost, x + 1, y, maxCost);
+                }
+                if (y < height - 1) {
+                    relaxWithin(ws, movementCost, n, cost, x, y + 1, maxCost);
                 }
             }
-        } while (frontier.size() > 0);
 
-        explored.forEach(n -> n.setCost(0));
+            MovementRange result = new MovementRange(left, top, right - left + 1, bottom - top + 1);
+            for (int i = 0; i < reached.size; ++i) {
+                int n = reached.get(i);
+                result.set(n % width, n / width, ws.getCost(n));
+            }
+            return result;
+        } finally {
+            releaseWorkspace(ws);
+        }
+    }
 
-        return result;
+    private void relaxWithin(SearchWorkspace ws, MovementCost movementCost, int from, float fromCost, int x, int y, int maxCost) {
+        float moveCost = movementCost.getCost(x, y);
+        if (moveCost == MovementCost.IMPASSABLE) return;
+
+        int node = pointToIndex(x, y);
+        float cost = fromCost + moveCost;
+        if (cost <= maxCost && (!ws.isVisited(node) || cost < ws.getCost(node))) {
+            ws.open(node, cost, from, cost);
+        }
     }
 
 }
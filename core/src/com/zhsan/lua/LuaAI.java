@@ -1,5 +1,6 @@
 package com.zhsan.lua;
 
+import com.zhsan.common.GlobalVariables;
 import com.zhsan.common.Paths;
 import com.zhsan.common.Point;
 import com.zhsan.gameobject.Faction;
@@ -7,10 +8,11 @@ import com.zhsan.gameobject.GameObject;
 import com.zhsan.gameobject.GameObjectList;
 import com.zhsan.gameobject.GameScenario;
 import org.luaj.vm2.*;
+import org.luaj.vm2.lib.DebugLib;
 import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
 import org.luaj.vm2.lib.VarArgFunction;
 import org.luaj.vm2.lib.ZeroArgFunction;
-import org.luaj.vm2.lib.jse.JsePlatform;
 
 import java.io.*;
 import java.lang.annotation.ElementType;
@@ -20,6 +22,7 @@ import java.lang.annotation.Target;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -33,31 +36,136 @@ public final class LuaAI {
 
     public static final String PATH = Paths.LUA + "AI" + File.separator;
     public static final String LOGS = PATH + "logs" + File.separator;
+    public static final String COMPILED = PATH + "compiled" + File.separator;
 
     public static final String FACTION_AI = "ZHSanFactionAI.lua";
 
-    private static Map<Faction, LuaValue> factionAIs = new HashMap<>();
-    private static Map<Faction, PrintWriter> loggers = new HashMap<>();
+    private static final int BUDGET_CHECK_INTERVAL = 1000;
+
+    private static final LuaScriptCache scripts = new LuaScriptCache();
+
+    /**
+     * AI state of a faction. The faction script runs as a coroutine, which may be suspended in the middle of a day, either
+     * by calling {@code coroutine.yield()} itself or by exceeding {@link GlobalVariables#aiInstructionBudget} or
+     * {@link GlobalVariables#aiTimeBudget}, and is then resumed the next day instead of starting over.
+     *
+     * Budgets are enforced by a debug count hook, so factions with a budget always run in the interpreter. Coroutines
+     * created by the scripts themselves are not counted. A time budget of {@link GlobalVariables#aiTimeout} always
+     * applies, so a script which is given up on by the game still stops, instead of running on in its own thread.
+     *
+     * A day of the script and applying the commands it recorded are synchronized on this object.
+     */
+    private static final class FactionAi {
+        private final Globals globals;
+        private final LuaCommandBuffer commands;
+        private LuaThread thread;
+
+        private long instructions;
+        private long dayStartTime;
+        private boolean budgetExceeded;
+
+        private FactionAi(Globals globals, LuaCommandBuffer commands) {
+            this.globals = globals;
+            this.commands = commands;
+            if (GlobalVariables.aiInstructionBudget > 0 || getTimeBudget() > 0) {
+                globals.load(new DebugLib());
+                // the hook is managed here, do not let the scripts remove it: hide the library, and do not let it be
+                // required again, either by name or as a Java class
+                globals.set("debug", LuaValue.NIL);
+                LuaValue pkg = globals.get("package");
+                pkg.get("loaded").set("debug", LuaValue.NIL);
+                pkg.set("searchers", LuaValue.listOf(new LuaValue[]{
+                        globals.package_.preload_searcher, globals.package_.lua_searcher}));
+            }
+        }
+
+        /**
+         * @return Time the script may run each day, in milliseconds, or 0 if unlimited
+         */
+        private static long getTimeBudget() {
+            long timeout = GlobalVariables.aiTimeout * 1000;
+            if (GlobalVariables.aiTimeBudget > 0 && (timeout <= 0 || GlobalVariables.aiTimeBudget < timeout)) {
+                return GlobalVariables.aiTimeBudget;
+            }
+            return Math.max(timeout, 0);
+        }
+
+        private int getHookCount() {
+            if (GlobalVariables.aiInstructionBudget > 0) {
+                return (int) Math.min(BUDGET_CHECK_INTERVAL, GlobalVariables.aiInstructionBudget);
+            }
+            return BUDGET_CHECK_INTERVAL;
+        }
+
+        private boolean isBudgetExceeded() {
+            return (GlobalVariables.aiInstructionBudget > 0 && instructions >= GlobalVariables.aiInstructionBudget) ||
+                    (getTimeBudget() > 0 && System.currentTimeMillis() - dayStartTime >= getTimeBudget());
+        }
+
+        private Varargs runDay() {
+            if (thread == null || thread.getStatus().equals("dead")) {
+                thread = new LuaThread(globals, scripts.load(PATH + FACTION_AI, globals));
+                if (globals.debuglib != null) {
+                    int hookCount = getHookCount();
+                    thread.state.hookfunc = new TwoArgFunction() {
+                        @Override
+                        public LuaValue call(LuaValue event, LuaValue line) {
+                            instructions += hookCount;
+                            if (isBudgetExceeded()) {
+                                budgetExceeded = true;
+                                globals.yield(NONE);
+                            }
+                            return NONE;
+                        }
+                    };
+                    thread.state.hookcount = hookCount;
+                }
+            }
+
+            instructions = 0;
+            dayStartTime = System.currentTimeMillis();
+            budgetExceeded = false;
+
+            return thread.resume(LuaValue.NONE);
+        }
+    }
+
+    private static Map<Faction, FactionAi> factionAIs = new ConcurrentHashMap<>();
+    private static Map<Faction, LuaLog> loggers = new ConcurrentHashMap<>();
+    private static LuaLogWriter logWriter;
 
     private LuaAI(){}
 
-    public static void dispose() {
-        loggers.forEach((f, w) -> w.close());
+    public static synchronized void dispose() {
+        if (logWriter != null) {
+            logWriter.close();
+            logWriter = null;
+        }
+        loggers.clear();
+        factionAIs.clear();
     }
 
-    public static void runFactionAi(GameScenario scen, Faction f) {
-        if (loggers.get(f) == null) {
-            try {
-                loggers.put(f, new PrintWriter(new OutputStreamWriter(new FileOutputStream(LOGS + "Faction" + f.getId() + ".log"), "UTF-8")));
-            } catch (UnsupportedEncodingException | FileNotFoundException e) {
-                e.printStackTrace();
+    private static synchronized LuaLog getLogger(Faction f) {
+        LuaLog logger = loggers.get(f);
+        if (logger == null) {
+            if (logWriter == null) {
+                logWriter = new LuaLogWriter();
             }
+            String level = GlobalVariables.aiLogLevels.getOrDefault(f.getId(), GlobalVariables.aiLogLevel);
+            logger = new LuaLog(new File(LOGS + "Faction" + f.getId() + ".log"), LuaLog.Level.parse(level),
+                    GlobalVariables.aiLogBufferSize, GlobalVariables.aiLogRotateSize, logWriter);
+            logWriter.register(logger);
+            loggers.put(f, logger);
         }
+        return logger;
+    }
 
-        PrintWriter logger = loggers.get(f);
+    public static void runFactionAi(GameScenario scen, Faction f) {
+        LuaLog logger = getLogger(f);
 
         if (factionAIs.get(f) == null) {
-            Globals globals = JsePlatform.standardGlobals();
+            Globals globals = scripts.newEnvironment();
+            LuaCommandBuffer commands = new LuaCommandBuffer();
 
             globals.set("PATH", PATH);
             globals.set("dump", new OneArgFunction() {
@@ -67,6 +175,7 @@ public final class LuaAI {
                 }
 
                 private void dump(int indent, LuaValue arg) {
+                    if (!logger.isEnabled(LuaLog.Level.DEBUG)) return;
                     if (indent > 8) return;
                     if (arg.istable()) {
                         LuaTable table = arg.checktable();
@@ -74,7 +183,7 @@ public final class LuaAI {
                             LuaValue key = table.keys()[i];
                             LuaValue value = table.get(key);
                             if (value.istable()) {
-                                logger.println(ns(indent, " ") + key + " = ");
+                                logger.log(LuaLog.Level.DEBUG, ns(indent, " ") + key + " = ");
                                 dump(indent + 4, value);
                             } else if (value.isfunction()) {
                                 if (key.tojstring().startsWith("get")) {
@@ -82,25 +191,24 @@ public final class LuaAI {
                                     try {
                                         result = value.call();
                                         if (result.istable()) {
-                                            logger.println(ns(indent, " ") + key + " = ");
+                                            logger.log(LuaLog.Level.DEBUG, ns(indent, " ") + key + " = ");
                                             dump(indent + 4, result);
                                         } else {
-                                            logger.println(ns(indent, " ") + key + " = " + result);
+                                            logger.log(LuaLog.Level.DEBUG, ns(indent, " ") + key + " = " + result);
                                         }
                                     } catch (IllegalArgumentException e) {
-                                        logger.println(ns(indent, " ") + key + " = " + value);
+                                        logger.log(LuaLog.Level.DEBUG, ns(indent, " ") + key + " = " + value);
                                     }
                                 } else {
-                                    logger.println(ns(indent, " ") + key + " = " + value);
+                                    logger.log(LuaLog.Level.DEBUG, ns(indent, " ") + key + " = " + value);
                                 }
                             } else {
-                                logger.println(ns(indent, " ") + key + " = " + value);
+                                logger.log(LuaLog.Level.DEBUG, ns(indent, " ") + key + " = " + value);
                             }
                         }
                     } else {
-                        logger.println(arg);
+                        logger.log(LuaLog.Level.DEBUG, arg);
                     }
-                    logger.flush();
                 }
 
                 @Override
@@ -112,29 +220,75 @@ public final class LuaAI {
             globals.set("print", new OneArgFunction() {
                 @Override
                 public LuaValue call(LuaValue arg) {
-                    logger.println(arg);
-                    logger.flush();
+                    logger.log(LuaLog.Level.INFO, arg);
+                    return NIL;
+                }
+            });
+            globals.set("log", new TwoArgFunction() {
+                @Override
+                public LuaValue call(LuaValue level, LuaValue arg) {
+                    logger.log(parseLevel(level), arg);
+                    return NIL;
+                }
+            });
+            globals.set("setLogLevel", new OneArgFunction() {
+                @Override
+                public LuaValue call(LuaValue level) {
+                    logger.setLevel(parseLevel(level));
                     return NIL;
                 }
             });
 
             LuaTable factionTable = LuaValue.tableOf();
-            LuaAI.processAnnotations(factionTable, Faction.class, f);
+            LuaAI.processAnnotations(factionTable, Faction.class, f, commands);
             globals.set("faction", factionTable);
 
             LuaTable scenarioTable = LuaValue.tableOf();
-            LuaAI.processAnnotations(scenarioTable, GameScenario.class, scen);
+            LuaAI.processAnnotations(scenarioTable, GameScenario.class, scen, commands);
             globals.set("scenario", scenarioTable);
 
-            LuaValue chunk = globals.loadfile(PATH + FACTION_AI);
+            factionAIs.put(f, new FactionAi(globals, commands));
+        }
 
-            factionAIs.put(f, chunk);
+        FactionAi ai = factionAIs.get(f);
+        synchronized (ai) {
+            try {
+                Varargs result = ai.runDay();
+                if (!result.arg1().toboolean()) {
+                    logger.log(LuaLog.Level.ERROR, result.arg(2));
+                } else if (ai.budgetExceeded) {
+                    logger.log(LuaLog.Level.WARN, "AI budget exceeded, continuing next day.");
+                }
+            } catch (LuaError e) {
+                logger.log(LuaLog.Level.ERROR, e);
+            } catch (OrphanedThread e) {
+                // Interrupted by the AI timeout. LuaJ only gets back to the interrupted thread once the coroutine has
+                // yielded, so it is suspended and is simply resumed the next day.
+                logger.log(LuaLog.Level.WARN, "AI interrupted, continuing next day.");
+                Thread.currentThread().interrupt();
+            }
         }
+    }
 
+    private static LuaLog.Level parseLevel(LuaValue level) {
         try {
-            factionAIs.get(f).call();
-        } catch (LuaError e) {
-            e.printStackTrace(logger);
+            return LuaLog.Level.parse(level.checkjstring());
+        } catch (IllegalArgumentException e) {
+            throw new LuaError("unknown log level " + level);
+        }
+    }
+
+    /**
+     * Apply the orders recorded by the AI of the given faction while running in {@link GlobalVariables#aiCommandBuffer} mode.
+     * Must be called from the game thread, after the AI of all factions have finished.
+     */
+    public static void applyFactionAiCommands(GameScenario scen, Faction f) {
+        FactionAi ai = factionAIs.get(f);
+        if (ai == null) return;
+
+        // wait for a script given up on by the AI timeout to yield
+        synchronized (ai) {
+            ai.commands.apply(scen, f, getLogger(f));
         }
     }
 
@@ -175,9 +329,29 @@ public final class LuaAI {
 
     @Retention(RetentionPolicy.RUNTIME)
     @Target({ElementType.METHOD})
-    public @interface ExportToLua{}
+    public @interface ExportToLua{
+        /**
+         * Whether the method changes the game state. In {@link GlobalVariables#aiCommandBuffer} mode, calls to such methods
+         * are recorded and only applied after the AI of all factions have run, and return nil to the script.
+         */
+        boolean mutator() default false;
+
+        /**
+         * What the first argument of a mutator is the id of. Recorded calls are skipped if it is gone by the time they are
+         * applied.
+         */
+        CommandTarget target() default CommandTarget.NONE;
+    }
 
-    private static LuaValue toLuaValue(Object obj) {
+    public enum CommandTarget {
+        NONE,
+        // a person or architecture of the faction of the AI
+        OWN_PERSON, OWN_ARCHITECTURE,
+        // any architecture or troop
+        ARCHITECTURE, TROOP
+    }
+
+    private static LuaValue toLuaValue(Object obj, LuaCommandBuffer commands) {
         if (obj instanceof Double) {
             return LuaValue.valueOf((Double) obj);
         } else if (obj instanceof Float) {
@@ -200,7 +374,7 @@ public final class LuaAI {
             return LuaValue.NIL;
         } else if (obj instanceof GameObject) {
             LuaTable child = LuaValue.tableOf();
-            LuaAI.processAnnotations(child, obj.getClass(), obj);
+            LuaAI.processAnnotations(child, obj.getClass(), obj, commands);
 
             return child;
         } else if (obj instanceof GameObjectList) {
@@ -212,7 +386,7 @@ public final class LuaAI {
             int index = 1;
             for (GameObject i : list) {
                 LuaTable child = LuaValue.tableOf();
-                LuaAI.processAnnotations(child, i.getClass(), i);
+                LuaAI.processAnnotations(child, i.getClass(), i, commands);
                 table.set(index, child);
                 index++;
             }
@@ -231,7 +405,7 @@ public final class LuaAI {
             LuaTable table = LuaValue.tableOf();
             int index = 1;
             for (Object i : list) {
-                table.set(index, LuaAI.toLuaValue(i));
+                table.set(index, LuaAI.toLuaValue(i, commands));
                 index++;
             }
             return table;
@@ -258,9 +432,10 @@ public final class LuaAI {
         }
     }
 
-    static void processAnnotations(LuaTable table, Class<?> klass, Object obj) {
+    static void processAnnotations(LuaTable table, Class<?> klass, Object obj, LuaCommandBuffer commands) {
         for (Method m : klass.getMethods()) {
-           if (m.isAnnotationPresent(ExportToLua.class)) {
+           ExportToLua export = m.getAnnotation(ExportToLua.class);
+           if (export != null) {
                table.set(m.getName(), new VarArgFunction() {
                    @Override
                    public Varargs invoke(Varargs args) {
@@ -272,13 +447,17 @@ public final class LuaAI {
                                objArgs[i] = fromLuaValue(args.arg(i + 1));
                            }
                        }
+                       if (export.mutator() && GlobalVariables.aiCommandBuffer) {
+                           commands.add(obj, m, objArgs);
+                           return NIL;
+                       }
                        Object result;
                        try {
                            result = m.invoke(obj, objArgs);
                        } catch (Exception e) {
                            throw new RuntimeException("Exception occurred invoking java method " + m + " with args " + Arrays.toString(objArgs), e);
                        }
-                       return toLuaValue(result);
+                       return toLuaValue(result, commands);
                    }
                });
            }
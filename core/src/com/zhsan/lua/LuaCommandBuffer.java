@@ -0,0 +1,137 @@
+package com.zhsan.lua;
+
+import com.zhsan.gameobject.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Orders issued by the AI script of one faction, recorded while the scripts of all factions run concurrently and applied
+ * serially afterwards.
+ */
+final class LuaCommandBuffer {
+
+    private static final class Command {
+        private final Object target;
+        private final Method method;
+        private final Object[] args;
+
+        private Command(Object target, Method method, Object[] args) {
+            this.target = target;
+            this.method = method;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            return target + "." + method.getName() + Arrays.toString(args);
+        }
+    }
+
+    private final List<Command> commands = new ArrayList<>();
+
+    synchronized void add(Object target, Method method, Object[] args) {
+        commands.add(new Command(target, method, args));
+    }
+
+    /**
+     * Apply all recorded commands in the order they were issued and empty the buffer. Commands whose actor or target is
+     * gone or has changed hands since they were recorded, or which are rejected by the game objects, are skipped.
+     * @param logger Where to report skipped commands
+     */
+    void apply(GameScenario scen, Faction faction, LuaLog logger) {
+        List<Command> toApply;
+        synchronized (this) {
+            toApply = new ArrayList<>(commands);
+            commands.clear();
+        }
+
+        for (Command c : toApply) {
+            Object result = applyCommand(scen, faction, logger, c);
+
+            if (c.target instanceof Military && c.method.getReturnType() == Troop.class) {
+                // the script tagged the military for the troop it could not get back, the tags go with the troop or nowhere
+                Military m = (Military) c.target;
+                if (result instanceof Troop) {
+                    m.passAiTagsTo((Troop) result);
+                } else {
+                    m.setAiTags("");
+                }
+            }
+        }
+    }
+
+    private static Object applyCommand(GameScenario scen, Faction faction, LuaLog logger, Command c) {
+        String reason = checkActor(scen, faction, c.target);
+        if (reason == null) {
+            reason = checkTarget(scen, faction, c);
+        }
+        if (reason != null) {
+            logger.log(LuaLog.Level.WARN, "Skipped command " + c + ": " + reason);
+            return null;
+        }
+
+        try {
+            return c.method.invoke(c.target, c.args);
+        } catch (InvocationTargetException e) {
+            logger.log(LuaLog.Level.WARN, "Rejected command " + c + ": " + e.getCause());
+            return null;
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new RuntimeException("Exception occurred invoking java method " + c.method + " with args " + Arrays.toString(c.args), e);
+        }
+    }
+
+    private static String checkActor(GameScenario scen, Faction faction, Object actor) {
+        if (actor instanceof Troop && ((Troop) actor).isDestroyed()) {
+            return "troop destroyed";
+        }
+        if (actor instanceof Military && scen.getMilitary(((Military) actor).getId()) != actor) {
+            return "military disbanded";
+        }
+        if (actor instanceof BelongsFactionGameObject && ((BelongsFactionGameObject) actor).getBelongedFaction() != faction) {
+            return actor + " no longer belongs to the faction";
+        }
+        return null;
+    }
+
+    private static String checkTarget(GameScenario scen, Faction faction, Command c) {
+        LuaAI.CommandTarget kind = c.method.getAnnotation(LuaAI.ExportToLua.class).target();
+        if (kind == LuaAI.CommandTarget.NONE) {
+            return null;
+        }
+        if (c.args.length == 0 || !(c.args[0] instanceof Number)) {
+            return "no target given";
+        }
+
+        int id = ((Number) c.args[0]).intValue();
+        BelongsFactionGameObject target;
+        switch (kind) {
+            case OWN_PERSON:
+                target = scen.getPerson(id);
+                break;
+            case OWN_ARCHITECTURE:
+            case ARCHITECTURE:
+                target = scen.getArchitecture(id);
+                break;
+            case TROOP:
+                Troop t = scen.getTroops().get(id);
+                target = t == null || t.isDestroyed() ? null : t;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command target " + kind);
+        }
+
+        if (target == null) {
+            return "target " + id + " gone";
+        }
+        if ((kind == LuaAI.CommandTarget.OWN_PERSON || kind == LuaAI.CommandTarget.OWN_ARCHITECTURE)
+                && target.getBelongedFaction() != faction) {
+            return target + " no longer belongs to the faction";
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.zhsan.lua;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Log of the AI of one faction.
+ *
+ * Messages are put into a lock-free ring buffer by the AI threads and written to the file in batches by
+ * {@link LuaLogWriter}, so that logging never waits for I/O. If the buffer is full, messages are dropped and the number
+ * of dropped messages is written to the log instead. The file is rotated once it grows over the given size.
+ */
+final class LuaLog {
+
+    enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF;
+
+        static Level parse(String s) {
+            return valueOf(s.trim().toUpperCase());
+        }
+    }
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+    private final long rotateSize;
+    private final LuaLogWriter writer;
+    private volatile Level level;
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // accessed by the writer thread only
+    private OutputStream out;
+    private long fileSize;
+
+    LuaLog(File file, Level level, int capacity, long rotateSize, LuaLogWriter writer) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+        this.file = file;
+        this.level = level;
+        this.rotateSize = rotateSize;
+        this.writer = writer;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    Level getLevel() {
+        return level;
+    }
+
+    void setLevel(Level level) {
+        this.level = level;
+    }
+
+    boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+    void log(Level l, Object message) {
+        if (isEnabled(l)) {
+            offer(String.valueOf(message));
+        }
+    }
+
+    void log(Level l, Throwable t) {
+        if (isEnabled(l)) {
+            StringWriter s = new StringWriter();
+            t.printStackTrace(new PrintWriter(s));
+            offer(s.toString().trim());
+        }
+    }
+
+    private void offer(String message) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= slots.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.set((int) t & mask, message);
+
+        if (t - head >= slots.length() / 2) {
+            writer.wake();
+        }
+    }
+
+    /**
+     * Write out all buffered messages. Called by the writer thread only.
+     */
+    void drain() throws IOException {
+        long h = head;
+        long d = dropped.get();
+        if (h == tail.get() && d == 0) return;
+
+        if (out == null) {
+            open();
+        }
+
+        String message;
+        while (h < tail.get() && (message = slots.get((int) h & mask)) != null) {
+            slots.set((int) h & mask, null);
+            head = ++h;
+            write(message);
+        }
+        if (d > 0) {
+            dropped.addAndGet(-d);
+            write(d + " log messages dropped.");
+        }
+        out.flush();
+    }
+
+    void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        fileSize = 0;
+    }
+
+    private void write(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        out.write(LINE_SEPARATOR);
+        fileSize += bytes.length + LINE_SEPARATOR.length;
+
+        if (rotateSize > 0 && fileSize >= rotateSize) {
+            out.close();
+            File backup = new File(file.getPath() + ".1");
+            if (backup.exists() && !backup.delete()) {
+                throw new IOException("Unable to delete " + backup);
+            }
+            if (!file.renameTo(backup)) {
+                throw new IOException("Unable to rename " + file + " to " + backup);
+            }
+            open();
+        }
+    }
+
+}
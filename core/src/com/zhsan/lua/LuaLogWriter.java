@@ -0,0 +1,73 @@
+package com.zhsan.lua;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread writing out the logs of all factions. It wakes up periodically, or whenever a log buffer is half full.
+ */
+final class LuaLogWriter implements Runnable {
+
+    private static final long WRITE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final List<LuaLog> logs = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    LuaLogWriter() {
+        thread = new Thread(this, "AI log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void register(LuaLog log) {
+        logs.add(log);
+    }
+
+    void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            drainAll();
+            LockSupport.parkNanos(this, WRITE_INTERVAL);
+        }
+        drainAll();
+        for (LuaLog log : logs) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void drainAll() {
+        for (LuaLog log : logs) {
+            try {
+                log.drain();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write out everything logged so far, close all files and stop the thread.
+     */
+    void close() {
+        running = false;
+        wake();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+package com.zhsan.lua;
+
+import com.zhsan.common.GlobalVariables;
+import org.luaj.vm2.*;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.CoroutineLib;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.luaj.vm2.luajc.LuaJC;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+/**
+ * Compiled AI scripts, shared by all factions.
+ *
+ * Every script is parsed and compiled once into a {@link Prototype}, and only recompiled when the file on disk is modified.
+ * Factions get their own lightweight environment which holds their globals, while the standard libraries are looked up
+ * from a single read-only table.
+ *
+ * If {@link GlobalVariables#compileAiScripts} is set, scripts are additionally compiled to JVM bytecode by LuaJC. The
+ * generated classes are stored under {@link LuaAI#COMPILED}, keyed by the hash of the script source, so that they are
+ * reused across launches. Scripts which fail to compile, or run in an environment with debug hooks, are run by the
+ * interpreter instead.
+ */
+final class LuaScriptCache {
+
+    private static final String[] SHARED_LIBRARIES = {"string", "table", "math", "bit32", "os", "io", "luajava"};
+
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    private static final class Script {
+        private final long lastModified;
+        private final Prototype prototype;
+        private final Class<?> compiled;
+        private final File compiledDir;
+
+        private Script(long lastModified, Prototype prototype, Class<?> compiled, File compiledDir) {
+            this.lastModified = lastModified;
+            this.prototype = prototype;
+            this.compiled = compiled;
+            this.compiledDir = compiledDir;
+        }
+    }
+
+    private static final class CompiledScriptLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        private CompiledScriptLoader(Map<String, byte[]> classes) {
+            super(LuaScriptCache.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Per-faction globals. Scripts loaded through this environment, including those by {@code dofile} and {@code require},
+     * are taken from the cache.
+     */
+    private final class Environment extends Globals {
+        @Override
+        public LuaValue loadfile(String filename) {
+            return LuaScriptCache.this.load(filename, this);
+        }
+    }
+
+    private final Globals compiler = JsePlatform.standardGlobals();
+    private final LuaTable libraryMetatable;
+
+    private final Map<String, Script> scripts = new HashMap<>();
+
+    LuaScriptCache() {
+        LuaTable library = LuaValue.tableOf();
+        for (String name : SHARED_LIBRARIES) {
+            LuaValue lib = compiler.get(name);
+            if (!lib.isnil()) {
+                library.set(name, readOnly(lib.checktable()));
+            }
+        }
+        libraryMetatable = readOnlyMetatable(library);
+    }
+
+    private static LuaTable readOnlyMetatable(LuaTable content) {
+        LuaTable meta = LuaValue.tableOf();
+        meta.set(LuaValue.INDEX, content);
+        meta.set(LuaValue.METATABLE, LuaValue.valueOf("read-only"));
+        return meta;
+    }
+
+    private static LuaTable readOnly(LuaTable content) {
+        LuaTable proxy = LuaValue.tableOf();
+        LuaTable meta = readOnlyMetatable(content);
+        meta.set(LuaValue.NEWINDEX, new TwoArgFunction() {
+            @Override
+            public LuaValue call(LuaValue table, LuaValue key) {
+                return error("attempt to modify read-only library field " + key);
+            }
+        });
+        proxy.setmetatable(meta);
+        return proxy;
+    }
+
+    /**
+     * Create a new environment with its own base, package and coroutine libraries. Everything else is shared.
+     */
+    Globals newEnvironment() {
+        Environment env = new Environment();
+        env.load(new JseBaseLib());
+        env.load(new PackageLib());
+        env.load(new CoroutineLib());
+        LoadState.install(env);
+        LuaC.install(env);
+
+        env.set("dofile", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return env.loadfile(args.checkjstring(1)).invoke();
+            }
+        });
+        env.set("loadfile", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                try {
+                    return env.loadfile(args.checkjstring(1));
+                } catch (LuaError e) {
+                    return varargsOf(NIL, valueOf(e.getMessage()));
+                }
+            }
+        });
+
+        env.setmetatable(libraryMetatable);
+        return env;
+    }
+
+    /**
+     * Instantiate the given script in the given environment, compiling it if it is not yet cached or has been modified.
+     * @param path Script file path
+     * @param env The environment the script runs in
+     * @return A function which runs the script
+     * @throws LuaError if the script cannot be read or compiled
+     */
+    LuaFunction load(String path, Globals env) {
+        Script script = getScript(path);
+        try {
+            if (script.compiled != null && env.debuglib == null) {
+                try {
+                    LuaFunction function = (LuaFunction) script.compiled.getDeclaredConstructor().newInstance();
+                    function.initupvalue1(env);
+                    return function;
+                } catch (LinkageError e) {
+                    new RuntimeException("Unable to load compiled " + path + ", interpreting it instead.", e).printStackTrace();
+                    discardCompiled(path, script);
+                }
+            }
+            return env.loader.load(script.prototype, script.prototype.source.tojstring(), env);
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new LuaError("load " + path + ": " + e);
+        }
+    }
+
+    /**
+     * Stop using the broken compiled classes of a script, and delete them from the disk so that they are generated again
+     * on the next launch.
+     */
+    private synchronized void discardCompiled(String path, Script script) {
+        if (scripts.get(path) == script) {
+            scripts.put(path, new Script(script.lastModified, script.prototype, null, null));
+        }
+        deleteDirectory(script.compiledDir);
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    Prototype getPrototype(String path) {
+        return getScript(path).prototype;
+    }
+
+    private synchronized Script getScript(String path) {
+        File f = new File(path);
+        if (!f.isFile()) {
+            throw new LuaError("cannot open " + path);
+        }
+
+        long lastModified = f.lastModified();
+        Script script = scripts.get(path);
+        if (script == null || script.lastModified != lastModified) {
+            byte[] source;
+            Prototype prototype;
+            try {
+                source = Files.readAllBytes(f.toPath());
+                prototype = compiler.compilePrototype(new ByteArrayInputStream(source), "@" + path);
+            } catch (IOException e) {
+                throw new LuaError("cannot read " + path + ": " + e);
+            }
+
+            Class<?> compiled = null;
+            File compiledDir = null;
+            if (GlobalVariables.compileAiScripts) {
+                compiledDir = new File(LuaAI.COMPILED + getClassName(source));
+                try {
+                    compiled = loadCompiledScript(path, source, compiledDir);
+                } catch (Exception | LinkageError e) {
+                    // fall back to the interpreter, and do not keep classes which cannot be loaded
+                    new RuntimeException("Unable to compile " + path + " with LuaJC, interpreting it instead.", e).printStackTrace();
+                    deleteDirectory(compiledDir);
+                }
+            }
+
+            script = new Script(lastModified, prototype, compiled, compiledDir);
+            scripts.put(path, script);
+        }
+        return script;
+    }
+
+    private static String hash(byte[] source) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(source)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getClassName(byte[] source) {
+        return "lua_" + hash(source);
+    }
+
+    /**
+     * Load the LuaJC classes of a script from the on-disk cache, generating and saving them if absent. The classes are
+     * written to a temporary directory first, which is then renamed, so a directory in the cache is always complete.
+     * All classes are loaded and linked here, so broken ones are found before the script runs.
+     * @return The class of the script main chunk
+     */
+    private Class<?> loadCompiledScript(String path, byte[] source, File dir) throws IOException, ClassNotFoundException {
+        String className = getClassName(source);
+
+        Map<String, byte[]> classes = new HashMap<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(CLASS_FILE_EXTENSION));
+        if (files != null && new File(dir, className + CLASS_FILE_EXTENSION).isFile()) {
+            for (File file : files) {
+                String name = file.getName();
+                classes.put(name.substring(0, name.length() - CLASS_FILE_EXTENSION.length()), Files.readAllBytes(file.toPath()));
+            }
+        } else {
+            @SuppressWarnings("unchecked")
+            Hashtable<String, byte[]> generated = LuaJC.instance.compileAll(
+                    new ByteArrayInputStream(source), className, path, compiler, false);
+            if (!generated.containsKey(className)) {
+                throw new IllegalStateException("LuaJC did not generate main class " + className + " for " + path);
+            }
+            classes.putAll(generated);
+
+            saveCompiledScript(dir, classes);
+        }
+
+        ClassLoader loader = new CompiledScriptLoader(classes);
+        for (String name : classes.keySet()) {
+            Class.forName(name, true, loader);
+        }
+        return loader.loadClass(className);
+    }
+
+    private static void saveCompiledScript(File dir, Map<String, byte[]> classes) throws IOException {
+        File parent = dir.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create " + parent);
+        }
+
+        Path temp = Files.createTempDirectory(parent.toPath(), dir.getName() + ".");
+        try {
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                Files.write(temp.resolve(e.getKey() + CLASS_FILE_EXTENSION), e.getValue());
+            }
+            Files.move(temp, dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // saved by another launch meanwhile
+        } finally {
+            if (Files.exists(temp)) {
+                deleteDirectory(temp.toFile());
+            }
+        }
+    }
+
+}
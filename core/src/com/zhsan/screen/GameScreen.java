@@ -25,6 +25,7 @@ import com.zhsan.lua.LuaAI;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -76,6 +77,7 @@ public class GameScreen extends WidgetGroup {
     public GameScreen(GameScenario scen) {
         this.scen = scen;
         this.dayRunner = new DayRunner();
+        prepareTravelCosts();
 
         personPortrait = new PersonPortrait(scen.getGameSurvey().getResourcePackName());
 
@@ -201,6 +203,7 @@ public class GameScreen extends WidgetGroup {
             loadGameFrame = new FileGameFrame(FileGameFrame.Usage.LOAD, file -> {
                 scen = new GameScenario(file, false, -1);
                 scen.setGameScenarioEventsListener(new ScreenScenarioEventsListener(this));
+                prepareTravelCosts();
             });
             this.addActor(loadGameFrame);
         } else {
@@ -268,11 +271,51 @@ public class GameScreen extends WidgetGroup {
         return personPortrait.getSmallPortrait(id);
     }
 
+    private static final class PendingRecord {
+        private final GameRecord.StringKeys msgName;
+        private final String[] objects;
+
+        private PendingRecord(GameRecord.StringKeys msgName, String[] objects) {
+            this.msgName = msgName;
+            this.objects = objects;
+        }
+    }
+
+    // records held back while fast-forwarding, added together at the next UI update
+    private Queue<PendingRecord> pendingRecords = new ConcurrentLinkedQueue<>();
+
     public void addGameRecordsMessage(GameRecord.StringKeys msgName, String... objects) {
-        toolBar.addRecord(msgName, objects);
+        if (dayRunner.isFastForward() && dayRunner.isDayRunning()) {
+            pendingRecords.add(new PendingRecord(msgName, objects));
+        } else {
+            toolBar.addRecord(msgName, objects);
+        }
+    }
+
+    private void flushGameRecordsMessages() {
+        PendingRecord r;
+        while ((r = pendingRecords.poll()) != null) {
+            toolBar.addRecord(r.msgName, r.objects);
+        }
     }
 
     private ExecutorService pool = Executors.newCachedThreadPool();
+
+    /**
+     * Find the travel costs between architectures in the background, so that they are ready when the AI needs them.
+     */
+    private void prepareTravelCosts() {
+        GameScenario s = scen;
+        pool.execute(() -> {
+            try {
+                s.getPathFinder().prepareTravelCosts();
+            } catch (RuntimeException e) {
+                // the costs are found again when first asked for
+                e.printStackTrace();
+            }
+        });
+    }
+
     private void runAi() {
         GameObjectList<Faction> factions = scen.getFactions();
         List<Callable<Void>> runnables = new ArrayList<>();
@@ -290,6 +333,9 @@ public class GameScreen extends WidgetGroup {
         } else {
             factions.filter(f -> f != scen.getCurrentPlayer()).forEach(Faction::ai);
         }
+        if (GlobalVariables.aiCommandBuffer) {
+            factions.filter(f -> f != scen.getCurrentPlayer()).forEach(Faction::applyAiCommands);
+        }
     }
 
     public class DayRunner {
@@ -307,6 +353,95 @@ public class GameScreen extends WidgetGroup {
         private volatile int moreDays;
         private final Object dayPauseLock = new Object();
 
+        private volatile boolean fastForward = false;
+        private int daysSinceUiUpdate;
+        private long lastUiUpdate;
+
+        private final GameScenario.OnTroopDone animateTroops = new GameScenario.OnTroopDone() {
+            @Override
+            public void onStartTroopStep(Troop t, Point oldLoc, Point newLoc, GameScenario.OnTroopAnimationDone onTroopAnimationDone) {
+                mapLayer.addPendingTroopAnimation(
+                        new TroopAnimationLayer.PendingTroopAnimation(t, TroopAnimationLayer.PendingTroopAnimationType.MOVE,
+                                oldLoc, newLoc, onTroopAnimationDone));
+            }
+
+            @Override
+            public void onStartAttackStep(Troop t, HasPointLocationGameObject target, GameScenario.OnTroopAnimationDone onTroopAnimationDone) {
+                mapLayer.addPendingTroopAnimation(
+                        new TroopAnimationLayer.PendingTroopAnimation(t, TroopAnimationLayer.PendingTroopAnimationType.ATTACK,
+                                t.getPosition(), target.getPosition(), onTroopAnimationDone));
+            }
+
+            @Override
+            public void onAttackDone(Troop t, HasPointLocationGameObject target, List<DamagePack> damagePacks) {
+                mapLayer.showDamage(damagePacks);
+                damagePacks.stream().filter(d -> d.destroyed).forEach(d -> {
+                    if (d.object instanceof Troop) {
+                        mapLayer.addTileAnimation(t.getPosition(), scen.getTroopAnimations().get(TroopAnimation.TroopAnimationKind.ROUTED.getId()));
+                    }
+                });
+            }
+
+            @Override
+            public void awaitTroopSteps() {
+                awaitTroopAnimations();
+            }
+        };
+
+        // fast-forward: every step completes at once on the day runner thread, nothing is shown
+        private final GameScenario.OnTroopDone skipTroopAnimations = new GameScenario.OnTroopDone() {
+            @Override
+            public void onStartTroopStep(Troop t, Point oldLoc, Point newLoc, GameScenario.OnTroopAnimationDone onTroopAnimationDone) {
+                onTroopAnimationDone.onTroopAnimationDone();
+            }
+
+            @Override
+            public void onStartAttackStep(Troop t, HasPointLocationGameObject target, GameScenario.OnTroopAnimationDone onTroopAnimationDone) {
+                onTroopAnimationDone.onTroopAnimationDone();
+            }
+
+            @Override
+            public void onAttackDone(Troop t, HasPointLocationGameObject target, List<DamagePack> damagePacks) {
+                // no-op
+            }
+
+            @Override
+            public void awaitTroopSteps() {
+                // no-op, steps complete at once
+            }
+        };
+
+        /**
+         * In fast-forward, days are run without troop animations, and the date runner, game records and architecture
+         * command frame are only updated every few days. Takes effect from the next day if days are running.
+         */
+        public void setFastForward(boolean fastForward) {
+            this.fastForward = fastForward;
+        }
+
+        public boolean isFastForward() {
+            return fastForward;
+        }
+
+        private void awaitTroopAnimations() {
+            while (!mapLayer.isNoPendingTroopAnimations()) {
+                try {
+                    mapLayer.awaitNoPendingTroopAnimations();
+                } catch (InterruptedException e) {
+                    // no-op
+                }
+            }
+        }
+
+        private boolean shouldUpdateUi(int daysLeft) {
+            if (!fastForward || daysLeft <= 0 || pauseDayRunner.get() || stopDayRunner.get()) {
+                return true;
+            }
+            daysSinceUiUpdate++;
+            return daysSinceUiUpdate >= GlobalVariables.fastForwardUiDays ||
+                    System.currentTimeMillis() - lastUiUpdate >= GlobalVariables.fastForwardUiInterval;
+        }
+
         public void continueRunDays() {
             if (dayRunning) {
                 pauseRunDays();
@@ -332,42 +467,15 @@ public class GameScreen extends WidgetGroup {
                     x.started(days);
                 }
 
+                daysSinceUiUpdate = 0;
+                lastUiUpdate = System.currentTimeMillis();
+
                 for (int i = 0; i < days; ++i) {
                     dayRunning = true;
 
-                    getScenario().advanceDay(new GameScenario.OnTroopDone() {
-                        @Override
-                        public void onStartTroopStep(Troop t, Point oldLoc, Point newLoc, GameScenario.OnTroopAnimationDone onTroopAnimationDone) {
-                            mapLayer.addPendingTroopAnimation(
-                                    new TroopAnimationLayer.PendingTroopAnimation(t, TroopAnimationLayer.PendingTroopAnimationType.MOVE,
-                                            oldLoc, newLoc, onTroopAnimationDone));
-                        }
-
-                        @Override
-                        public void onStartAttackStep(Troop t, HasPointLocationGameObject target, GameScenario.OnTroopAnimationDone onTroopAnimationDone) {
-                            mapLayer.addPendingTroopAnimation(
-                                    new TroopAnimationLayer.PendingTroopAnimation(t, TroopAnimationLayer.PendingTroopAnimationType.ATTACK,
-                                            t.getPosition(), target.getPosition(), onTroopAnimationDone));
-                        }
-
-                        @Override
-                        public void onAttackDone(Troop t, HasPointLocationGameObject target, List<DamagePack> damagePacks) {
-                            mapLayer.showDamage(damagePacks);
-                            damagePacks.stream().filter(d -> d.destroyed).forEach(d -> {
-                                if (d.object instanceof Troop) {
-                                    mapLayer.addTileAnimation(t.getPosition(), scen.getTroopAnimations().get(TroopAnimation.TroopAnimationKind.ROUTED.getId()));
-                                }
-                            });
-                        }
-                    });
-                    while (!mapLayer.isNoPendingTroopAnimations()){
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException e) {
-                            // no-op
-                        }
-                        // wait animation thread to clear its queue
-                    }
+                    getScenario().advanceDay(fastForward ? skipTroopAnimations : animateTroops);
+                    // wait for the animation thread to finish all animations of the day
+                    awaitTroopAnimations();
 
                     runAi();
 
@@ -379,11 +487,18 @@ public class GameScreen extends WidgetGroup {
                         moreDays = 0;
                     }
 
-                    for (RunningDaysListener x : runningDaysListeners) {
-                        x.passed(days - i - 1);
-                    }
+                    if (shouldUpdateUi(days - i - 1)) {
+                        daysSinceUiUpdate = 0;
+                        lastUiUpdate = System.currentTimeMillis();
+
+                        for (RunningDaysListener x : runningDaysListeners) {
+                            x.passed(days - i - 1);
+                        }
+                        flushGameRecordsMessages();
+                        Gdx.graphics.requestRendering();
 
-                    architectureCommandFrame.invalidateData();
+                        architectureCommandFrame.invalidateData();
+                    }
 
                     while (pauseDayRunner.get()) {
                         synchronized (dayPauseLock) {
@@ -402,9 +517,11 @@ public class GameScreen extends WidgetGroup {
                 }
 
                 dayRunning = false;
+                flushGameRecordsMessages();
                 for (RunningDaysListener x : runningDaysListeners) {
                     x.stopped();
                 }
+                Gdx.graphics.requestRendering();
             };
             dayRunner = new Thread(dayRunnable, "Day runner");
             dayRunner.start();
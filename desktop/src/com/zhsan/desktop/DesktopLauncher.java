@@ -31,6 +31,6 @@ public class DesktopLauncher {
         config.useGL30 = false;
         config.width = ZHSan2.DEFAULT_WIDTH;
         config.height = ZHSan2.DEFAULT_HEIGHT;
-		new LwjglApplication(new ZHSan2(), config);
+		new LwjglApplication(new ZHSan2(fps -> config.backgroundFPS = fps), config);
 	}
 }